@@ -0,0 +1,169 @@
+package IPC;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * A single-producer/single-consumer ring buffer over a region of a (memory-mapped) byte buffer.
+ *
+ * Layout, relative to the start of the region:
+ * <ul>
+ *     <li> 0: head, the total number of bytes ever written. Only the producer writes it.
+ *     <li> 64: tail, the total number of bytes ever read. Only the consumer writes it.
+ *     <li> 128: the data area, {@code capacity} bytes.
+ * </ul>
+ * The counters live on separate cache lines so the two processes do not false-share. Each frame is a
+ * little-endian int length followed by the payload, padded to 8 bytes so length fields never straddle the end of the
+ * data area. The payload itself may wrap around.
+ *
+ * Waiting is done by spinning, then yielding, then parking with a growing timeout. Spinning is skipped on a single
+ * CPU, where it would only delay the peer. No futex or other kernel object is shared, so the Python side only needs
+ * plain loads and stores.
+ */
+public class RingBuffer
+{
+    public static final int HEADER_SIZE = 128;
+    private static final int HEAD = 0;
+    private static final int TAIL = 64;
+    private static final int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 1 << 14 : 0;
+    private static final int YIELDS = 64;
+    private static final long MAX_PARK_NANOS = 1_000_000;
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final ByteBuffer buffer;
+    private final int offset;
+    private final int capacity;
+    private final int data;
+
+    /**
+     * @param buffer - a direct buffer shared with the other process.
+     * @param offset - where this ring's header starts. Must be 8 byte aligned.
+     * @param capacity - the size of the data area. Must be a power of two.
+     */
+    public RingBuffer(ByteBuffer buffer, int offset, int capacity)
+    {
+        if (Integer.bitCount(capacity) != 1 || capacity < 8 || offset % 8 != 0)
+        {
+            throw new IllegalArgumentException("capacity must be a power of two and offset must be 8 byte aligned");
+        }
+        this.buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        this.offset = offset;
+        this.capacity = capacity;
+        this.data = offset + HEADER_SIZE;
+    }
+
+    /**
+     * @param capacity - the size of the data area.
+     * @return the number of bytes a ring with this capacity occupies.
+     */
+    public static int sizeOf(int capacity)
+    {
+        return HEADER_SIZE + capacity;
+    }
+
+    /**
+     * Reset both counters. Only call this before the other process attaches.
+     */
+    public void clear()
+    {
+        LONGS.setRelease(buffer, offset + HEAD, 0L);
+        LONGS.setRelease(buffer, offset + TAIL, 0L);
+    }
+
+    /**
+     * Append one frame, waiting for the consumer to make room if necessary.
+     * @param frame - the payload.
+     * @param closed - checked while waiting. Waiting stops and false is returned once this is true.
+     * @return whether the frame was written.
+     */
+    public boolean write(byte[] frame, BooleanSupplier closed)
+    {
+        int size = align(Integer.BYTES + frame.length);
+        if (size > capacity)
+        {
+            throw new IllegalArgumentException("Frame of " + frame.length + " bytes does not fit in the ring buffer");
+        }
+        long head = (long) LONGS.getOpaque(buffer, offset + HEAD);
+        int attempt = 0;
+        while (capacity - (head - (long) LONGS.getAcquire(buffer, offset + TAIL)) < size)
+        {
+            if (closed.getAsBoolean())
+            {
+                return false;
+            }
+            idle(attempt++);
+        }
+        int position = (int) (head & (capacity - 1));
+        buffer.putInt(data + position, frame.length);
+        copyIn(frame, (position + Integer.BYTES) & (capacity - 1));
+        LONGS.setRelease(buffer, offset + HEAD, head + size);
+        return true;
+    }
+
+    /**
+     * Remove one frame, waiting for the producer if the ring is empty.
+     * @param closed - checked while waiting. Waiting stops and null is returned once this is true.
+     * @return the payload, or null if the ring was closed while empty.
+     */
+    public byte[] read(BooleanSupplier closed)
+    {
+        long tail = (long) LONGS.getOpaque(buffer, offset + TAIL);
+        int attempt = 0;
+        while ((long) LONGS.getAcquire(buffer, offset + HEAD) == tail)
+        {
+            if (closed.getAsBoolean())
+            {
+                return null;
+            }
+            idle(attempt++);
+        }
+        int position = (int) (tail & (capacity - 1));
+        byte[] frame = new byte[buffer.getInt(data + position)];
+        copyOut(frame, (position + Integer.BYTES) & (capacity - 1));
+        LONGS.setRelease(buffer, offset + TAIL, tail + align(Integer.BYTES + frame.length));
+        return frame;
+    }
+
+    private void copyIn(byte[] frame, int position)
+    {
+        int first = Math.min(frame.length, capacity - position);
+        buffer.put(data + position, frame, 0, first);
+        buffer.put(data, frame, first, frame.length - first);
+    }
+
+    private void copyOut(byte[] frame, int position)
+    {
+        int first = Math.min(frame.length, capacity - position);
+        buffer.get(data + position, frame, 0, first);
+        buffer.get(data, frame, first, frame.length - first);
+    }
+
+    private static int align(int size)
+    {
+        return (size + 7) & ~7;
+    }
+
+    /**
+     * Back off while the other process catches up. Short waits never leave the CPU, so a busy peer sees
+     * sub-microsecond hand-offs, while an idle peer costs almost nothing once parking kicks in.
+     * @param attempt - how many times the caller has already waited.
+     */
+    static void idle(int attempt)
+    {
+        if (attempt < SPINS)
+        {
+            Thread.onSpinWait();
+        } else if (attempt < SPINS + YIELDS)
+        {
+            Thread.yield();
+        } else
+        {
+            LockSupport.parkNanos(Math.min(MAX_PARK_NANOS, 1000L << Math.min(attempt - SPINS - YIELDS, 10)));
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package IPC;
+
+/**
+ * A listener that Python processes connect to. Implementations differ only in how bytes move between the
+ * processes; channels and observers behave the same for every transport.
+ */
+public interface Server
+{
+    /**
+     * Register an observer for a channel. "$MESSAGE" observers receive every message.
+     * @param event - the channel to listen to.
+     * @param observer - the callback.
+     */
+    void on(String event, SocketListener.Observer observer);
+
+    /**
+     * Block until a Python process connects, then serve it on a new worker thread.
+     */
+    void waitForConnection();
+
+    /**
+     * Stop listening and release the underlying resources.
+     */
+    void destroy();
+}
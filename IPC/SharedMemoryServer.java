@@ -0,0 +1,151 @@
+package IPC;
+
+import com.sun.istack.logging.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A {@link Server} that exchanges frames with Python through a memory-mapped file instead of a TCP socket.
+ *
+ * The file starts with a 64 byte control block, followed by the Java to Python ring and the Python to Java ring
+ * (see {@link RingBuffer}):
+ * <ul>
+ *     <li> 0: magic number "TAIL".
+ *     <li> 4: the capacity of each ring.
+ *     <li> 8: Java's state. 1 while serving, 2 once destroyed.
+ *     <li> 12: Python's state. 0 until it attaches, 1 while attached, 2 once it disconnects.
+ * </ul>
+ * The Python side lives in IPC/shm_transport.py. It publishes the head and tail of a ring with plain stores, since
+ * Python has no memory fences, and relies on x86's total store order to keep the frame visible before the new head.
+ * The transport is therefore only offered on x86 hosts, see {@link #isSupported()}.
+ */
+public class SharedMemoryServer implements Server
+{
+    public static final int MAGIC = 0x4C494154;
+    public static final int CONTROL_SIZE = 64;
+    public static final int DEFAULT_CAPACITY = 1 << 20;
+
+    static final int JAVA_STATE = 8;
+    static final int PYTHON_STATE = 12;
+    static final int OPEN = 1;
+    static final int CLOSED = 2;
+
+    static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private static final Logger LOGGER = Logger.getLogger(SharedMemoryServer.class);
+
+    private final File file;
+    private MappedByteBuffer buffer;
+    private RingBuffer toPython;
+    private RingBuffer toJava;
+    private SocketListener listener;
+
+    /**
+     * Create a shared memory server under /dev/shm (or the temp directory when /dev/shm is missing).
+     * @param name - the file name. Python needs the full path, see {@link #getFile()}.
+     */
+    public SharedMemoryServer(String name)
+    {
+        this(new File(defaultDirectory(), name), DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param file - the file to map. It is created or truncated.
+     * @param capacity - the size of each ring. Must be a power of two and larger than the biggest message.
+     * @throws UncheckedIOException when the file cannot be created or mapped.
+     */
+    public SharedMemoryServer(File file, int capacity)
+    {
+        this.file = file;
+        create(capacity);
+    }
+
+    /**
+     * @return whether the Python side of the rings is safe on this host. Its plain loads and stores are only ordered
+     * on x86.
+     */
+    public static boolean isSupported()
+    {
+        String arch = System.getProperty("os.arch", "");
+        return arch.equals("amd64") || arch.equals("x86_64") || arch.equals("x86") || arch.matches("i[3-6]86");
+    }
+
+    private static File defaultDirectory()
+    {
+        File shm = new File("/dev/shm");
+        return shm.isDirectory() ? shm : new File(System.getProperty("java.io.tmpdir"));
+    }
+
+    private void create(int capacity)
+    {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+        {
+            int ring = RingBuffer.sizeOf(capacity);
+            raf.setLength(0);
+            raf.setLength(CONTROL_SIZE + 2L * ring);
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, CONTROL_SIZE + 2L * ring);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            toPython = new RingBuffer(buffer, CONTROL_SIZE, capacity);
+            toJava = new RingBuffer(buffer, CONTROL_SIZE + ring, capacity);
+            toPython.clear();
+            toJava.clear();
+            buffer.putInt(4, capacity);
+            INTS.setRelease(buffer, PYTHON_STATE, 0);
+            INTS.setRelease(buffer, JAVA_STATE, OPEN);
+            INTS.setRelease(buffer, 0, MAGIC);
+            LOGGER.info("Listening on " + file.getAbsolutePath());
+            listener = new SocketListener();
+        } catch (IOException err)
+        {
+            throw new UncheckedIOException("Unable to map " + file.getAbsolutePath(), err);
+        }
+    }
+
+    /**
+     * @return the mapped file Python has to attach to.
+     */
+    public File getFile()
+    {
+        return file;
+    }
+
+    @Override
+    public void on(String event, SocketListener.Observer observer)
+    {
+        listener.register(event, observer);
+    }
+
+    @Override
+    public void waitForConnection()
+    {
+        int attempt = 0;
+        while ((int) INTS.getAcquire(buffer, PYTHON_STATE) != OPEN)
+        {
+            if ((int) INTS.getAcquire(buffer, JAVA_STATE) == CLOSED)
+            {
+                return;
+            }
+            RingBuffer.idle(attempt++);
+        }
+        SharedMemoryWorker worker = new SharedMemoryWorker(buffer, toPython, toJava, listener);
+        worker.start();
+    }
+
+    @Override
+    public void destroy()
+    {
+        INTS.setRelease(buffer, JAVA_STATE, CLOSED);
+        if (!file.delete() && file.exists())
+        {
+            LOGGER.warning("Unable to delete " + file.getAbsolutePath());
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package IPC;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Serves one Python process attached to a {@link SharedMemoryServer}. Mirrors {@link SocketWorker}: the connection
+ * is announced on "$CONNECT", every frame is handed to the listener and "$DISCONNECT" fires when either side closes.
+ */
+public class SharedMemoryWorker extends Thread implements Worker
+{
+    private final ByteBuffer control;
+    private final RingBuffer toPython;
+    private final RingBuffer toJava;
+    private final SocketListener listener;
+
+    public SharedMemoryWorker(ByteBuffer control, RingBuffer toPython, RingBuffer toJava, SocketListener listener)
+    {
+        this.control = control;
+        this.toPython = toPython;
+        this.toJava = toJava;
+        this.listener = listener;
+        setName("TAIL_SHM_WORKER");
+    }
+
+    private boolean isClosed()
+    {
+        return (int) SharedMemoryServer.INTS.getAcquire(control, SharedMemoryServer.PYTHON_STATE) == SharedMemoryServer.CLOSED
+                || (int) SharedMemoryServer.INTS.getAcquire(control, SharedMemoryServer.JAVA_STATE) == SharedMemoryServer.CLOSED;
+    }
+
+    private SocketData makeData(String message, String channel, Exception err)
+    {
+        SocketData data = new SocketData(message, channel);
+        data.worker = this;
+        if (err != null)
+        {
+            data.error = err;
+        }
+        return data;
+    }
+
+    /**
+     * The ring only supports a single producer, so concurrent senders take turns.
+     */
+    @Override
+    public synchronized void send(String channel, String message)
+    {
+        try {
+            if (message == null)
+            {
+                message = "$NULL";
+            }
+            toPython.write(new SocketData(message, channel).toFrame(), this::isClosed);
+        } catch (Exception err)
+        {
+            err.printStackTrace();
+        }
+    }
+
+    public void run()
+    {
+        boolean saidGoodbye = false;
+        try {
+            SocketData data = makeData(null, "$CONNECT", null);
+            send("$CONNECT", null);
+            listener.notify(data);
+
+            while (true)
+            {
+                byte[] frame = toJava.read(this::isClosed);
+                if (frame == null)
+                {
+                    break;
+                }
+                data = SocketData.fromFrame(frame);
+                data.worker = this;
+                if (data.shouldDisconnect())
+                {
+                    saidGoodbye = true;
+                } else {
+                    listener.notify(data);
+                }
+            }
+        }
+        catch (Exception err)
+        {
+            listener.notify(makeData(null, "$ISSUE", err));
+        }
+        // Like SocketWorker, every connection ends with exactly one "$DISCONNECT", "bye" when Python closed cleanly.
+        listener.notify(makeData(saidGoodbye ? "bye" : null, "$DISCONNECT", null));
+    }
+}
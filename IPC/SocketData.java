@@ -1,5 +1,6 @@
 package IPC;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Base64;
 import java.util.BitSet;
 
@@ -8,7 +9,7 @@ public class SocketData
     public String message;
     public String channel;
     public Exception error;
-    public SocketWorker worker;
+    public Worker worker;
 
     public SocketData(String message, String channel) {
         this.channel = channel;
@@ -29,6 +30,25 @@ public class SocketData
         return Base64.getEncoder().encodeToString(data.getBytes());
     }
 
+    /**
+     * Parse a length delimited frame. Frames need no base64 because their length is known up front.
+     * @param frame - the UTF-8 bytes of "channel:message".
+     * @return the decoded data.
+     */
+    public static SocketData fromFrame(byte[] frame)
+    {
+        String[] parsed = new String(frame, StandardCharsets.UTF_8).split(":", 2);
+        return new SocketData(parsed[1], parsed[0]);
+    }
+
+    /**
+     * @return the UTF-8 bytes of "channel:message".
+     */
+    public byte[] toFrame()
+    {
+        return (channel + ":" + message).getBytes(StandardCharsets.UTF_8);
+    }
+
     public boolean shouldDisconnect()
     {
         return channel.equals("$DISCONNECT") && message.equals("bye");
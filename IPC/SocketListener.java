@@ -1,38 +1,70 @@
 package IPC;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class SocketListener {
-    private static class ObserverRegistration {
-        public Observer observer;
-        public String event;
-        public ObserverRegistration(String event, Observer observer){
-            this.observer = observer;
-            this.event = event;
-        };
-    }
+    private static final Observer[] NONE = new Observer[0];
+
+    /**
+     * Observers of each channel. Arrays are replaced rather than modified, so dispatch never needs a lock.
+     */
+    private final Map<String, Observer[]> routes = new ConcurrentHashMap<>();
 
-    private final List<ObserverRegistration> listeners = new ArrayList<>();
+    /**
+     * Observers of "$MESSAGE", which receive every message.
+     */
+    private volatile Observer[] wildcard = NONE;
 
     public interface Observer{
         void update (SocketData data);
     }
 
+    /**
+     * Hand data to the "$MESSAGE" observers, then to the observers of its channel, each in registration order.
+     * Data without a channel only reaches the "$MESSAGE" observers.
+     * @param data - the received data. Ignored when null.
+     */
     public void notify(SocketData data)
     {
-        listeners.forEach(listener -> {
-            if (listener.event.equals("$MESSAGE") || listener.event.equals(data.channel)) {
-                if (data != null)
-                {
-                    listener.observer.update(data);
-                }
-            }
-        });
+        if (data == null)
+        {
+            return;
+        }
+        for (Observer observer : wildcard)
+        {
+            observer.update(data);
+        }
+        if (data.channel == null || "$MESSAGE".equals(data.channel))
+        {
+            return;
+        }
+        for (Observer observer : routes.getOrDefault(data.channel, NONE))
+        {
+            observer.update(data);
+        }
+    }
+
+    /**
+     * Register an observer. Safe to call while messages are being dispatched.
+     * @param event - the channel, or "$MESSAGE" for every channel.
+     * @param observer - the callback.
+     */
+    public synchronized void register(String event, Observer observer)
+    {
+        if (event.equals("$MESSAGE"))
+        {
+            wildcard = append(wildcard, observer);
+        } else {
+            routes.put(event, append(routes.getOrDefault(event, NONE), observer));
+        }
     }
 
-    public void register(String event, Observer observer)
+    private static Observer[] append(Observer[] observers, Observer observer)
     {
-        listeners.add(new ObserverRegistration(event, observer));
+        Observer[] copy = Arrays.copyOf(observers, observers.length + 1);
+        copy[observers.length] = observer;
+        return copy;
     }
 }
@@ -1,10 +1,11 @@
 package IPC;
 
+import java.net.BindException;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 
-public class SocketServer
+public class SocketServer implements Server
 {
     private ServerSocket server;
     private SocketListener listener;
@@ -24,18 +25,39 @@ public class SocketServer
         try {
             server = new ServerSocket();
             server.bind(new InetSocketAddress(host, port));
-            System.out.println("Listening on " + host + ":" + port);
+            System.out.println("Listening on " + host + ":" + server.getLocalPort());
             listener = new SocketListener();
+        } catch (BindException err)
+        {
+            System.out.println("Unable to listen on " + host + ":" + port + ", " + err.getMessage());
         } catch (Exception err)
         {
             err.printStackTrace();
         }
     }
 
+    /**
+     * @return whether the server is listening. False when the port was taken, for example by another engine.
+     */
+    public boolean isBound()
+    {
+        return listener != null;
+    }
+
+    /**
+     * @return the port the server is bound to. Useful when it was created with port 0, which binds an ephemeral port.
+     */
+    public int getPort()
+    {
+        return server.getLocalPort();
+    }
+
+    @Override
     public void on(String event, SocketListener.Observer observer) {
         listener.register(event, observer);
     }
 
+    @Override
     public void waitForConnection()
     {
         try {
@@ -49,6 +71,7 @@ public class SocketServer
         }
     }
 
+    @Override
     public void destroy()
     {
         try
@@ -3,13 +3,44 @@ package IPC;
 import java.io.*;
 import java.net.Socket;
 import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
-public class SocketWorker extends Thread
+public class SocketWorker extends Thread implements Worker
 {
+    /**
+     * Queued after the last frame to stop the writer.
+     */
+    private static final byte[] CLOSE = new byte[0];
+
+    /**
+     * How many frames may wait for the writer. A full queue makes senders wait, so a Python process that stops reading
+     * slows the engine down instead of filling the heap.
+     */
+    static final int OUTBOUND_CAPACITY = 1024;
+
+    /**
+     * How long a blocked sender waits before checking again whether the worker was closed, in milliseconds.
+     */
+    private static final long SEND_POLL = 100;
+
     Socket socket;
     SocketListener listener;
     BufferedInputStream input;
-    public BufferedOutputStream output;
+    private BufferedOutputStream output;
+
+    /**
+     * Frames waiting to be written. Any thread may send, but only the writer thread touches the output stream.
+     */
+    private final LinkedBlockingQueue<byte[]> outbound = new LinkedBlockingQueue<>(OUTBOUND_CAPACITY);
+    private final Thread writer = new Thread(this::write);
+    private volatile boolean closed = false;
+
+    /**
+     * Whether Python sent "$DISCONNECT:bye" before the connection ended.
+     */
+    private boolean saidGoodbye = false;
 
     //int counter = 0;
 
@@ -19,7 +50,9 @@ public class SocketWorker extends Thread
             this.socket = socket;
             this.listener = listener;
             this.input = new BufferedInputStream(socket.getInputStream());
-            this.output = new BufferedOutputStream(socket.getOutputStream());
+            this.output = new BufferedOutputStream(socket.getOutputStream(), 1 << 16);
+            this.writer.setName("TAIL_SOCKET_WRITER");
+            this.writer.setDaemon(true);
         } catch (Exception err)
         {
             err.printStackTrace();
@@ -41,27 +74,73 @@ public class SocketWorker extends Thread
     }
 
 
+    /**
+     * Queue a message for the writer thread. Encoding happens on the calling thread and the socket is only touched by
+     * the writer. When {@link #OUTBOUND_CAPACITY} frames are already waiting this blocks until the writer catches up.
+     * Messages are dropped once the connection is closed or the writer failed, and when the sender is interrupted.
+     */
+    @Override
     public void send(String channel, String message)
+    {
+        if (closed)
+        {
+            return;
+        }
+        if (message == null)
+        {
+            message = "$NULL";
+        }
+        SocketData data = new SocketData(message, channel);
+        byte[] frame = (data.serialize() + "\n").getBytes(StandardCharsets.UTF_8);
+        try {
+            while (!closed)
+            {
+                if (outbound.offer(frame, SEND_POLL, TimeUnit.MILLISECONDS))
+                {
+                    return;
+                }
+            }
+        } catch (InterruptedException err)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Drain the outbound queue. Every frame that is already queued when the writer wakes up is written before a single
+     * flush, so bursts of messages cost one syscall instead of one each.
+     * If writing fails the worker is marked closed, so later sends are dropped instead of piling up in the queue.
+     */
+    private void write()
     {
         try {
-            if (message == null)
+            while (true)
             {
-                message = "$NULL";
+                byte[] frame = outbound.take();
+                do {
+                    if (frame == CLOSE)
+                    {
+                        output.flush();
+                        return;
+                    }
+                    output.write(frame);
+                } while ((frame = outbound.poll()) != null);
+                output.flush();
             }
-            SocketData data = new SocketData(message, channel);
-            byte[] out = (data.serialize() + "\n").getBytes("UTF-8");
-            output.write(out);
-            output.flush();
-        } catch (SocketException ignore) {}
+        } catch (SocketException | InterruptedException ignore) {}
         catch (Exception err)
         {
             err.printStackTrace();
         }
-
+        finally {
+            closed = true;
+            outbound.clear();
+        }
     }
 
     public void run()
     {
+        writer.start();
         try {
 
             BufferedReader reader = new BufferedReader(new InputStreamReader(input));
@@ -78,20 +157,32 @@ public class SocketWorker extends Thread
                 }
                 data = SocketData.parse(encoding);
                 data.worker = this;
-                if (!data.shouldDisconnect())
+                if (data.shouldDisconnect())
                 {
+                    saidGoodbye = true;
+                } else {
                     listener.notify(data);
                 }
             }
         }
-        catch (SocketException err) {
-            listener.notify(makeData(null, "$DISCONNECT"));
+        catch (SocketException ignored) {
+            // Python went away without closing, reported below.
         }
         catch (Exception err)
         {
             listener.notify(makeData(null, "$ISSUE", err));
         }
         finally {
+            // Every connection ends with exactly one "$DISCONNECT". Its message is "bye" when Python closed cleanly.
+            listener.notify(makeData(saidGoodbye ? "bye" : null, "$DISCONNECT"));
+            try {
+                closed = true;
+                if (!outbound.offer(CLOSE, 1000, TimeUnit.MILLISECONDS))
+                {
+                    writer.interrupt();
+                }
+                writer.join(1000);
+            } catch (Exception ignored){}
             try {
                 input.close();
             } catch (Exception ignored){}
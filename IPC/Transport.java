@@ -0,0 +1,18 @@
+package IPC;
+
+/**
+ * The ways Java and Python can exchange channel messages.
+ */
+public enum Transport
+{
+    /**
+     * Newline delimited, base64 encoded frames over a loopback TCP socket.
+     */
+    SOCKET,
+
+    /**
+     * Length prefixed frames in a pair of ring buffers inside a memory-mapped file. Both processes must be on the
+     * same host.
+     */
+    SHARED_MEMORY
+}
@@ -0,0 +1,15 @@
+package IPC;
+
+/**
+ * One side of a connection to a Python process. Observers receive the worker that delivered a message through
+ * {@link SocketData#worker} and reply through it, regardless of which transport carried the message.
+ */
+public interface Worker
+{
+    /**
+     * Send a message to the connected Python process.
+     * @param channel - the channel the message belongs to.
+     * @param message - (nullable) the message body.
+     */
+    void send(String channel, String message);
+}
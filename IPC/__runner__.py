@@ -35,6 +35,24 @@ signal.signal(signal.SIGINT, keyboardInterruptHandler)
 
 
 
+if os.environ.get("TAIL_TRANSPORT") == "SHARED_MEMORY":
+    # The gym attaches with `import shm_transport; shm_transport.connect()` instead of opening its socket.
+    sys.path.append(os.environ["TAIL_IPC_PATH"])
+
+if os.environ.get("TAIL_SCRIPT"):
+    # The runner is started from .__TAIL_cache__, but the script expects to be the file that was run.
+    __file__ = os.environ["TAIL_SCRIPT"]
+    sys.argv[0] = __file__
+
+if "TAIL_SEED" in os.environ:
+    import random
+    random.seed(int(os.environ["TAIL_SEED"]))
+    try:
+        import numpy
+        numpy.random.seed(int(os.environ["TAIL_SEED"]) % 2 ** 32)
+    except ImportError:
+        pass
+
 """
 This file is auto generated by running PythonOptimizationEngine.
 """
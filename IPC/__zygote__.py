@@ -0,0 +1,102 @@
+"""
+Warm interpreter for optimization/PythonInterpreterPool.java.
+
+Started once per Python executable. It imports the modules listed in TAIL_PRELOAD (gym and numpy by default), then
+waits for JSON requests on stdin, one per line:
+
+    {"script": path, "cwd": dir, "stdout": path, "stderr": path, "env": {name: value}}
+
+For each request it forks. The child already has every preloaded module imported, so it only has to run the script.
+The parent replies with the child's pid on its own line, or -1 if the request could not be served. Requests are served until stdin closes.
+
+Children are reaped as they exit, and each exit is reported on its own line as `exit <pid> <code>`. A child killed by
+a signal reports 128 plus the signal number, like a shell does. An exit can be reported before the pid reply of the
+same child when the child exits right away.
+"""
+import importlib
+import json
+import os
+import runpy
+import signal
+import sys
+import traceback
+
+PRELOAD = os.environ.get('TAIL_PRELOAD', 'gym,numpy')
+
+
+def preload():
+    for name in filter(None, (module.strip() for module in PRELOAD.split(','))):
+        try:
+            importlib.import_module(name)
+        except Exception as err:
+            print('TAIL zygote could not preload {}: {}'.format(name, err), file=sys.stderr)
+
+
+def exit_code(status):
+    if os.WIFSIGNALED(status):
+        return 128 + os.WTERMSIG(status)
+    return os.WEXITSTATUS(status)
+
+
+def reap(replies):
+    while True:
+        try:
+            pid, status = os.waitpid(-1, os.WNOHANG)
+        except ChildProcessError:
+            return
+        if pid == 0:
+            return
+        os.write(replies, 'exit {} {}\n'.format(pid, exit_code(status)).encode())
+
+
+def run(request, replies):
+    signal.signal(signal.SIGCHLD, signal.SIG_DFL)
+    os.close(replies)
+    sys.stdin.close()
+    os.environ.update(request.get('env', {}))
+    os.chdir(request.get('cwd', os.getcwd()))
+    for fd, key in ((1, 'stdout'), (2, 'stderr')):
+        if request.get(key):
+            target = os.open(request[key], os.O_WRONLY | os.O_CREAT | os.O_TRUNC, 0o644)
+            os.dup2(target, fd)
+            os.close(target)
+    code = 0
+    try:
+        # Like `python script`: the script's folder comes first on the path.
+        sys.argv = [request['script']]
+        sys.path.insert(0, os.path.dirname(os.path.abspath(request['script'])))
+        runpy.run_path(request['script'], run_name='__main__')
+    except SystemExit as err:
+        code = err.code if isinstance(err.code, int) else 0
+    except BaseException:
+        traceback.print_exc()
+        code = 1
+    finally:
+        sys.stdout.flush()
+        sys.stderr.flush()
+    os._exit(code)
+
+
+def main():
+    # Requests and replies keep the original stdin/stdout. Anything else printed goes to stderr.
+    replies = os.dup(1)
+    os.dup2(2, 1)
+    preload()
+    signal.signal(signal.SIGCHLD, lambda signum, frame: reap(replies))
+    os.write(replies, b'ready\n')
+    for line in sys.stdin:
+        if not line.strip():
+            continue
+        try:
+            request = json.loads(line)
+            pid = os.fork()
+        except Exception:
+            traceback.print_exc()
+            pid = -1
+        if pid == 0:
+            run(request, replies)
+        os.write(replies, '{}\n'.format(pid).encode())
+
+
+if __name__ == '__main__':
+    main()
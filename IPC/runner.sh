@@ -2,4 +2,4 @@
 #trap 'echo "Be patient"' INT
 command -v python
 /usr/bin/env pip3 list | grep gym
-$1 "$2"
\ No newline at end of file
+exec "$1" "$2"
\ No newline at end of file
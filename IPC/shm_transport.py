@@ -0,0 +1,146 @@
+"""
+Python side of IPC/SharedMemoryServer.java.
+
+When PythonOptimizationEngine runs with Transport.SHARED_MEMORY, the runner process is started with
+TAIL_TRANSPORT=SHARED_MEMORY and TAIL_SHM_PATH=<mapped file>, and the runner puts this folder on sys.path. The gym
+attaches with connect() instead of opening its socket, then uses send/recv exactly like it would use the socket:
+messages are (channel, message) string pairs.
+
+The layout must stay in sync with SharedMemoryServer.java and RingBuffer.java.
+
+Memory ordering: Java publishes head and tail with release stores and reads them with acquire loads. Python cannot
+issue fences, so this side uses plain loads and stores and relies on x86's total store order: a frame is written
+before the head that publishes it, and the tail is read before the frame it guards is overwritten. On weakly ordered
+CPUs (ARM, POWER) a reader could see the new head before the frame, so Java only offers the transport on x86, see
+SharedMemoryServer.isSupported().
+"""
+import mmap
+import os
+import struct
+import time
+
+MAGIC = 0x4C494154
+CONTROL_SIZE = 64
+HEADER_SIZE = 128
+HEAD = 0
+TAIL = 64
+JAVA_STATE = 8
+PYTHON_STATE = 12
+OPEN = 1
+CLOSED = 2
+
+SPINS = 1 << 12 if (os.cpu_count() or 1) > 1 else 0
+YIELDS = 64
+MAX_SLEEP = 0.001
+
+
+def _idle(attempt):
+    if attempt < SPINS:
+        return
+    if attempt < SPINS + YIELDS:
+        time.sleep(0)
+        return
+    time.sleep(min(MAX_SLEEP, 1e-6 * (1 << min(attempt - SPINS - YIELDS, 10))))
+
+
+class _Ring:
+    def __init__(self, buf, offset, capacity):
+        self.buf = buf
+        self.offset = offset
+        self.capacity = capacity
+        self.data = offset + HEADER_SIZE
+
+    def _load(self, field):
+        return struct.unpack_from('<q', self.buf, self.offset + field)[0]
+
+    def _store(self, field, value):
+        struct.pack_into('<q', self.buf, self.offset + field, value)
+
+    def write(self, frame, closed):
+        size = (4 + len(frame) + 7) & ~7
+        if size > self.capacity:
+            raise ValueError('frame of {} bytes does not fit in the ring buffer'.format(len(frame)))
+        head = self._load(HEAD)
+        attempt = 0
+        while self.capacity - (head - self._load(TAIL)) < size:
+            if closed():
+                return False
+            _idle(attempt)
+            attempt += 1
+        position = head & (self.capacity - 1)
+        struct.pack_into('<i', self.buf, self.data + position, len(frame))
+        self._copy_in(frame, (position + 4) & (self.capacity - 1))
+        self._store(HEAD, head + size)
+        return True
+
+    def read(self, closed):
+        tail = self._load(TAIL)
+        attempt = 0
+        while self._load(HEAD) == tail:
+            if closed():
+                return None
+            _idle(attempt)
+            attempt += 1
+        position = tail & (self.capacity - 1)
+        length = struct.unpack_from('<i', self.buf, self.data + position)[0]
+        frame = self._copy_out(length, (position + 4) & (self.capacity - 1))
+        self._store(TAIL, tail + ((4 + length + 7) & ~7))
+        return frame
+
+    def _copy_in(self, frame, position):
+        first = min(len(frame), self.capacity - position)
+        self.buf[self.data + position:self.data + position + first] = frame[:first]
+        self.buf[self.data:self.data + len(frame) - first] = frame[first:]
+
+    def _copy_out(self, length, position):
+        first = min(length, self.capacity - position)
+        return self.buf[self.data + position:self.data + position + first] + self.buf[self.data:self.data + length - first]
+
+
+def connect():
+    """
+    :return: a SharedMemoryTransport attached to the file Java mapped for this process, or None when Java chose the
+             socket.
+    """
+    if os.environ.get('TAIL_TRANSPORT') != 'SHARED_MEMORY':
+        return None
+    return SharedMemoryTransport(os.environ['TAIL_SHM_PATH'])
+
+
+class SharedMemoryTransport:
+    def __init__(self, path=None):
+        path = path or os.environ['TAIL_SHM_PATH']
+        self._file = open(path, 'r+b')
+        self._buf = mmap.mmap(self._file.fileno(), 0)
+        magic, capacity = struct.unpack_from('<ii', self._buf, 0)
+        if magic != MAGIC:
+            raise ValueError('{} is not a TAIL shared memory file'.format(path))
+        ring = HEADER_SIZE + capacity
+        self._to_java = _Ring(self._buf, CONTROL_SIZE + ring, capacity)
+        self._to_python = _Ring(self._buf, CONTROL_SIZE, capacity)
+        struct.pack_into('<i', self._buf, PYTHON_STATE, OPEN)
+
+    def closed(self):
+        java, python = struct.unpack_from('<ii', self._buf, JAVA_STATE)
+        return java == CLOSED or python == CLOSED
+
+    def send(self, message, channel):
+        if message is None:
+            message = '$NULL'
+        return self._to_java.write('{}:{}'.format(channel, message).encode('utf-8'), self.closed)
+
+    def recv(self):
+        """
+        :return: (channel, message), or None once either side has closed.
+        """
+        frame = self._to_python.read(self.closed)
+        if frame is None:
+            return None
+        channel, message = frame.decode('utf-8').split(':', 1)
+        return channel, message
+
+    def disconnect(self):
+        self.send('bye', '$DISCONNECT')
+        struct.pack_into('<i', self._buf, PYTHON_STATE, CLOSED)
+        self._buf.close()
+        self._file.close()
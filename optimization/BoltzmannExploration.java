@@ -0,0 +1,98 @@
+package optimization;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * Draw an action with probability proportional to {@code exp(Q(s,a) / temperature)}. Unlike epsilon-greedy, actions
+ * that are nearly as good as the best are tried much more often than clearly bad ones.
+ * The temperature can decay every episode, down to a minimum, so the choice gets greedier over time.
+ *
+ * The row is scanned twice, once for its maximum, which keeps exp() from overflowing, and once for the draw.
+ */
+public class BoltzmannExploration implements ExplorationStrategy {
+
+    private final double initialTemperature;
+    private final double decay;
+    private final double minimumTemperature;
+    private double temperature;
+
+    /**
+     * A fixed temperature.
+     * @param temperature - how soft the choice is. Higher means closer to uniform, lower means closer to greedy.
+     *                    Must be greater than 0.
+     * @throws IllegalArgumentException when the temperature is not greater than 0.
+     */
+    public BoltzmannExploration(double temperature)
+    {
+        this(temperature, 1, temperature);
+    }
+
+    /**
+     * A temperature that decays every episode.
+     * @param temperature - the initial temperature, greater than 0.
+     * @param decay - the factor the temperature is multiplied by after every episode, greater than 0 and at most 1.
+     * @param minimumTemperature - the temperature never decays below this. Must be greater than 0.
+     * @throws IllegalArgumentException when a temperature is not greater than 0 or the decay is out of range.
+     */
+    public BoltzmannExploration(double temperature, double decay, double minimumTemperature)
+    {
+        if (!(temperature > 0))
+        {
+            throw new IllegalArgumentException("Temperature must be greater than 0 but was " + temperature);
+        }
+        if (!(minimumTemperature > 0))
+        {
+            throw new IllegalArgumentException("Minimum temperature must be greater than 0 but was " + minimumTemperature);
+        }
+        if (!(decay > 0 && decay <= 1))
+        {
+            throw new IllegalArgumentException("Temperature decay must be greater than 0 and at most 1 but was " + decay);
+        }
+        this.initialTemperature = temperature;
+        this.decay = decay;
+        this.minimumTemperature = Math.min(minimumTemperature, temperature);
+        this.temperature = temperature;
+    }
+
+    /**
+     * @return the current temperature.
+     */
+    public double getTemperature()
+    {
+        return temperature;
+    }
+
+    @Override
+    public int chooseAction(QTable qTable, int stateIndex, RandomGenerator random)
+    {
+        int numberOfActions = qTable.getNumberOfActions();
+        double max = qTable.getBestValue(stateIndex);
+        double sum = 0;
+        for (int actionIndex = 0; actionIndex < numberOfActions; actionIndex++)
+        {
+            sum += Math.exp((qTable.get(stateIndex, actionIndex) - max) / temperature);
+        }
+        double draw = random.nextDouble() * sum;
+        for (int actionIndex = 0; actionIndex < numberOfActions - 1; actionIndex++)
+        {
+            draw -= Math.exp((qTable.get(stateIndex, actionIndex) - max) / temperature);
+            if (draw < 0)
+            {
+                return actionIndex;
+            }
+        }
+        return numberOfActions - 1;
+    }
+
+    @Override
+    public void endEpisode()
+    {
+        temperature = Math.max(minimumTemperature, temperature * decay);
+    }
+
+    @Override
+    public void reset()
+    {
+        temperature = initialTemperature;
+    }
+}
@@ -2,6 +2,7 @@ package optimization;
 
 import java.util.*;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 public class Cartesian {
 
@@ -33,5 +34,101 @@ public class Cartesian {
         return result;
     }
 
+    /**
+     * The same product as {@link #productFrom(List)}, in the same order, without materializing it.
+     * @param list the values of each dimension.
+     * @param <T> the type of value.
+     * @return a read-only view over every combination.
+     */
+    public static <T> Product<T> lazyProductFrom(List<List<T>> list)
+    {
+        return new Product<>(list);
+    }
+
+    /**
+     * A read-only, index-addressable view of a Cartesian product. Combination {@code index} is decoded as a
+     * mixed-radix number whose last digit belongs to the last dimension, so the view matches
+     * {@link #productFrom(List)} item for item. Nothing is stored besides the dimensions themselves; each
+     * {@link #get(int)} returns a small view that looks values up on demand.
+     *
+     * @param <T> the type of value.
+     */
+    public static class Product<T> extends AbstractList<List<T>> implements RandomAccess
+    {
+        private final Object[][] dimensions;
+        private final int[] strides;
+        private final int size;
+
+        private Product(List<List<T>> list)
+        {
+            dimensions = new Object[list.size()][];
+            strides = new int[list.size()];
+            int stride = 1;
+            for (int i = list.size() - 1; i >= 0; i--)
+            {
+                dimensions[i] = list.get(i).toArray();
+                strides[i] = stride;
+                stride = Math.multiplyExact(stride, dimensions[i].length);
+            }
+            size = list.isEmpty() ? 0 : stride;
+        }
+
+        @Override
+        public int size()
+        {
+            return size;
+        }
+
+        @Override
+        public List<T> get(int index)
+        {
+            Objects.checkIndex(index, size);
+            return new Combination(index);
+        }
+
+        /**
+         * @param index the combination.
+         * @param dimension the dimension.
+         * @return the value of one dimension of a combination.
+         */
+        @SuppressWarnings("unchecked")
+        public T get(int index, int dimension)
+        {
+            Object[] values = dimensions[dimension];
+            return (T) values[index / strides[dimension] % values.length];
+        }
+
+        /**
+         * Splits evenly by index, so every half of a parallel traversal gets the same amount of work.
+         */
+        @Override
+        public Spliterator<List<T>> spliterator()
+        {
+            return IntStream.range(0, size).mapToObj(this::get).spliterator();
+        }
+
+        private class Combination extends AbstractList<T> implements RandomAccess
+        {
+            private final int index;
+
+            Combination(int index)
+            {
+                this.index = index;
+            }
+
+            @Override
+            public T get(int dimension)
+            {
+                return Product.this.get(index, dimension);
+            }
+
+            @Override
+            public int size()
+            {
+                return dimensions.length;
+            }
+        }
+    }
+
 
 }
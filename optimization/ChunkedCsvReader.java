@@ -0,0 +1,85 @@
+package optimization;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Read the rows of a csv written by {@link ChunkedCsvWriter}, starting at any row.
+ *
+ * A compressed file with an index is opened at the gzip member that holds the row, so only that member is
+ * decompressed before the row is reached. Other files are read from the start and the rows before it are skipped.
+ */
+public final class ChunkedCsvReader {
+
+    private ChunkedCsvReader()
+    {
+    }
+
+    /**
+     * @param file - a csv, or a csv.gz, written by {@link ChunkedCsvWriter}.
+     * @param row - the first row to read, counted from 0 after the heading.
+     * @return a reader positioned at the row. The heading is not returned.
+     */
+    public static BufferedReader open(File file, long row) throws IOException
+    {
+        boolean compressed = file.getName().endsWith(".gz");
+        File indexFile = ChunkedCsvWriter.getIndexFile(file);
+        if (!compressed || !indexFile.isFile())
+        {
+            InputStream in = Files.newInputStream(file.toPath());
+            BufferedReader reader = new BufferedReader(new InputStreamReader(compressed ? new GZIPInputStream(in, 1 << 16) : in, StandardCharsets.UTF_8));
+            skipLines(reader, row + 1);
+            return reader;
+        }
+
+        long chunkRow = 0;
+        long offset = -1;
+        List<String> index = Files.readAllLines(indexFile.toPath());
+        for (int i = 1; i < index.size(); i++)
+        {
+            String[] entry = index.get(i).split(",");
+            long entryRow = Long.parseLong(entry[0]);
+            if (entryRow > row)
+            {
+                break;
+            }
+            chunkRow = entryRow;
+            offset = Long.parseLong(entry[1]);
+        }
+
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        long skip = row - chunkRow;
+        if (offset < 0)
+        {
+            // Before the first chunk, or no rows at all: read from the heading.
+            offset = 0;
+            skip = row + 1;
+        }
+        channel.position(offset);
+        // Reads past the member on to the ones after it, so rows that span chunks come out in order.
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(Channels.newInputStream(channel), 1 << 16), StandardCharsets.UTF_8));
+        skipLines(reader, skip);
+        return reader;
+    }
+
+    private static void skipLines(BufferedReader reader, long lines) throws IOException
+    {
+        for (long line = 0; line < lines; line++)
+        {
+            if (reader.readLine() == null)
+            {
+                return;
+            }
+        }
+    }
+}
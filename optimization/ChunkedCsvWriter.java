@@ -0,0 +1,213 @@
+package optimization;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes large CSV files by formatting chunks of rows in parallel and writing the chunks in order.
+ *
+ * Rows are formatted on the common fork-join pool, each chunk into a reused per-thread StringBuilder, while the
+ * calling thread writes finished chunks to a file channel. Only a few chunks are in flight at a time, so memory stays
+ * bounded no matter how many rows there are.
+ *
+ * Compressed files are block-compressed: every chunk, and every heading, is deflated on the pool into its own gzip
+ * member. Concatenated members are a valid gzip file, so gunzip and zcat read it as usual. The first row and byte
+ * offset of every chunk are written to an index next to the file, [file].idx, which {@link ChunkedCsvReader} uses to
+ * start reading at any row without decompressing the members before it.
+ */
+public class ChunkedCsvWriter implements Closeable {
+
+    /**
+     * Formats one row, including its line separator.
+     */
+    public interface RowFormatter
+    {
+        void format(int row, StringBuilder out);
+    }
+
+    private static final int ROWS_PER_CHUNK = 4096;
+    private static final ThreadLocal<StringBuilder> BUILDERS = ThreadLocal.withInitial(() -> new StringBuilder(1 << 16));
+    private static final long[] POWERS_OF_TEN = {1, 10, 100, 1000, 10000, 100000, 1000000};
+
+    private final File file;
+    private final FileChannel channel;
+    private final ForkJoinPool pool = ForkJoinPool.commonPool();
+    private final boolean compressed;
+
+    /**
+     * The bytes and rows written so far, and the "row,offset" entries of the index of a compressed file.
+     */
+    private long position = 0;
+    private long rowsWritten = 0;
+    private final StringBuilder index = new StringBuilder("Row,Offset\n");
+
+    public ChunkedCsvWriter(File file) throws IOException
+    {
+        this(file, false);
+    }
+
+    /**
+     * @param file - the file to write. The name is used as is, callers add ".gz" themselves.
+     * @param compressed - whether to write gzip members and an index, see {@link ChunkedCsvWriter}.
+     */
+    public ChunkedCsvWriter(File file, boolean compressed) throws IOException
+    {
+        this.file = file;
+        this.compressed = compressed;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * @param file - a file written with compression.
+     * @return the index written next to it.
+     */
+    public static File getIndexFile(File file)
+    {
+        return new File(file.getParentFile(), file.getName() + ".idx");
+    }
+
+    /**
+     * Write text as is. Used for headings.
+     * @param text - the text to write.
+     */
+    public void write(CharSequence text) throws IOException
+    {
+        ByteBuffer bytes = StandardCharsets.UTF_8.encode(CharBuffer.wrap(text));
+        writeFully(compressed ? compress(bytes) : bytes);
+    }
+
+    /**
+     * Format rows {@code 0..rows-1} in parallel chunks and write them in order.
+     * @param rows - the number of rows.
+     * @param formatter - formats a single row. Called from several threads at once.
+     */
+    public void writeRows(int rows, RowFormatter formatter) throws IOException
+    {
+        int window = Math.max(2, pool.getParallelism() * 2);
+        ArrayDeque<ForkJoinTask<ByteBuffer>> inFlight = new ArrayDeque<>();
+        int nextChunkRow = 0;
+        for (int start = 0; start < rows || !inFlight.isEmpty(); start += ROWS_PER_CHUNK)
+        {
+            if (start < rows)
+            {
+                int from = start;
+                int to = Math.min(rows, start + ROWS_PER_CHUNK);
+                inFlight.add(pool.submit(() -> formatChunk(from, to, formatter, compressed)));
+            }
+            if (inFlight.size() >= window || start >= rows)
+            {
+                ByteBuffer chunk = join(inFlight.remove());
+                if (compressed)
+                {
+                    index.append(rowsWritten + nextChunkRow).append(',').append(position).append('\n');
+                }
+                writeFully(chunk);
+                nextChunkRow += ROWS_PER_CHUNK;
+            }
+        }
+        rowsWritten += rows;
+    }
+
+    private static ByteBuffer formatChunk(int from, int to, RowFormatter formatter, boolean compressed)
+    {
+        StringBuilder out = BUILDERS.get();
+        out.setLength(0);
+        for (int row = from; row < to; row++)
+        {
+            formatter.format(row, out);
+        }
+        ByteBuffer bytes = StandardCharsets.UTF_8.encode(CharBuffer.wrap(out));
+        return compressed ? compress(bytes) : bytes;
+    }
+
+    /**
+     * Deflate bytes into a single gzip member. Uses the fastest level: the files are mostly repeated enum names,
+     * which compress well at any level, and the point is to spend less time on I/O, not more on the CPU.
+     */
+    private static ByteBuffer compress(ByteBuffer bytes)
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.remaining() / 8 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out, 1 << 16) {{ def.setLevel(Deflater.BEST_SPEED); }})
+        {
+            gzip.write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+        } catch (IOException err)
+        {
+            throw new UncheckedIOException(err);
+        }
+        return ByteBuffer.wrap(out.toByteArray());
+    }
+
+    private static ByteBuffer join(ForkJoinTask<ByteBuffer> task) throws IOException
+    {
+        try {
+            return task.get();
+        } catch (InterruptedException | ExecutionException err)
+        {
+            throw new IOException("Unable to format rows", err);
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException
+    {
+        position += buffer.remaining();
+        while (buffer.hasRemaining())
+        {
+            channel.write(buffer);
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        channel.close();
+        if (compressed)
+        {
+            Files.writeString(getIndexFile(file).toPath(), index);
+        }
+    }
+
+    /**
+     * Append a double with six decimals, like {@code String.format("%f", value)} but without a Formatter.
+     * Values are rounded half up from {@code value * 10^6}, so a tie in the seventh decimal can round differently
+     * than Formatter's decimal expansion. The decimal separator is always '.', regardless of locale.
+     * @param out - where to append.
+     * @param value - the value.
+     * @return out.
+     */
+    public static StringBuilder appendFixed(StringBuilder out, double value)
+    {
+        double magnitude = Math.abs(value);
+        if (!(magnitude < 1e12))
+        {
+            return out.append(String.format(Locale.ROOT, "%f", value));
+        }
+        if (Double.doubleToRawLongBits(value) < 0)
+        {
+            out.append('-');
+        }
+        long scaled = Math.round(magnitude * POWERS_OF_TEN[6]);
+        out.append(scaled / POWERS_OF_TEN[6]).append('.');
+        long fraction = scaled % POWERS_OF_TEN[6];
+        for (int digit = 5; digit > 0 && fraction < POWERS_OF_TEN[digit]; digit--)
+        {
+            out.append('0');
+        }
+        return out.append(fraction);
+    }
+}
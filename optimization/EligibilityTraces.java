@@ -0,0 +1,170 @@
+package optimization;
+
+import java.util.Arrays;
+
+/**
+ * Sparse eligibility traces for Q(lambda).
+ *
+ * Only the traces that are still above the cutoff are stored: their keys and values in two dense arrays, found
+ * through a primitive open-addressing table. An update therefore costs time proportional to the number of active
+ * traces rather than to the size of the Q-Table. Keys are {@code stateIndex * numberOfActions + actionIndex}.
+ */
+public class EligibilityTraces {
+
+    private static final int EMPTY = -1;
+    private static final int MIN_CAPACITY = 16;
+
+    private int[] keys = new int[MIN_CAPACITY];
+    private double[] values = new double[MIN_CAPACITY];
+    private int size = 0;
+
+    /**
+     * Open addressing from a key to its position in the dense arrays. Kept at most half full.
+     */
+    private int[] table = emptyTable(MIN_CAPACITY * 2);
+
+    /**
+     * @return the number of active traces.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * @param i - a position below {@link EligibilityTraces#size()}.
+     * @return the key of the trace at a position.
+     */
+    public int keyAt(int i)
+    {
+        return keys[i];
+    }
+
+    /**
+     * @param i - a position below {@link EligibilityTraces#size()}.
+     * @return the value of the trace at a position.
+     */
+    public double valueAt(int i)
+    {
+        return values[i];
+    }
+
+    /**
+     * @param key - the key.
+     * @return the trace of a key, or 0 if it is not active.
+     */
+    public double get(int key)
+    {
+        int bucket = find(key);
+        return table[bucket] == EMPTY ? 0 : values[table[bucket]];
+    }
+
+    /**
+     * Set a trace, activating it if needed.
+     * @param key - the key.
+     * @param value - the trace.
+     */
+    public void set(int key, double value)
+    {
+        int bucket = find(key);
+        if (table[bucket] != EMPTY)
+        {
+            values[table[bucket]] = value;
+            return;
+        }
+        if (size == keys.length)
+        {
+            keys = Arrays.copyOf(keys, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        keys[size] = key;
+        values[size] = value;
+        table[bucket] = size++;
+        if (size * 2 > table.length)
+        {
+            rehash();
+        }
+    }
+
+    /**
+     * Multiply every trace by a factor and drop the ones that fall below the cutoff.
+     * @param factor - usually gamma * lambda.
+     * @param cutoff - traces below this are removed.
+     */
+    public void decay(double factor, double cutoff)
+    {
+        int kept = 0;
+        for (int i = 0; i < size; i++)
+        {
+            double value = values[i] * factor;
+            if (value >= cutoff)
+            {
+                keys[kept] = keys[i];
+                values[kept++] = value;
+            }
+        }
+        if (kept != size)
+        {
+            size = kept;
+            rehash();
+        }
+    }
+
+    /**
+     * Remove every trace.
+     */
+    public void clear()
+    {
+        if (size > 0)
+        {
+            size = 0;
+            rehash();
+        }
+    }
+
+    private int find(int key)
+    {
+        int mask = table.length - 1;
+        int i = mix(key) & mask;
+        while (table[i] != EMPTY && keys[table[i]] != key)
+        {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /**
+     * Rebuild the table for the current traces, growing or shrinking it so it stays between a quarter and half full.
+     */
+    private void rehash()
+    {
+        int capacity = MIN_CAPACITY * 2;
+        while (capacity < size * 4)
+        {
+            capacity *= 2;
+        }
+        if (capacity == table.length)
+        {
+            Arrays.fill(table, EMPTY);
+        } else {
+            table = emptyTable(capacity);
+        }
+        for (int i = 0; i < size; i++)
+        {
+            table[find(keys[i])] = i;
+        }
+    }
+
+    private static int[] emptyTable(int capacity)
+    {
+        int[] table = new int[capacity];
+        Arrays.fill(table, EMPTY);
+        return table;
+    }
+
+    private static int mix(int key)
+    {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
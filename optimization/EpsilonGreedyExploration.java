@@ -0,0 +1,83 @@
+package optimization;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * Take a uniformly random action at a rate epsilon and the best action otherwise. After every episode epsilon is
+ * multiplied by a decay factor, down to a minimum, so early episodes explore and later ones exploit what was learned.
+ * A decay of 1 keeps epsilon fixed.
+ */
+public class EpsilonGreedyExploration implements ExplorationStrategy {
+
+    private final double initialEpsilon;
+    private final double decay;
+    private final double minimumEpsilon;
+    private double epsilon;
+
+    /**
+     * A fixed exploration rate.
+     * @param epsilon - the rate at which a random action is taken, between 0 and 1.
+     * @throws IllegalArgumentException when epsilon is not between 0 and 1.
+     */
+    public EpsilonGreedyExploration(double epsilon)
+    {
+        this(epsilon, 1, epsilon);
+    }
+
+    /**
+     * An exploration rate that decays every episode.
+     * @param epsilon - the initial rate at which a random action is taken, between 0 and 1.
+     * @param decay - the factor epsilon is multiplied by after every episode, greater than 0 and at most 1.
+     * @param minimumEpsilon - epsilon never decays below this, between 0 and 1.
+     * @throws IllegalArgumentException when epsilon or the minimum is not between 0 and 1 or the decay is out of range.
+     */
+    public EpsilonGreedyExploration(double epsilon, double decay, double minimumEpsilon)
+    {
+        if (!(epsilon >= 0 && epsilon <= 1))
+        {
+            throw new IllegalArgumentException("Epsilon must be between 0 and 1 but was " + epsilon);
+        }
+        if (!(minimumEpsilon >= 0 && minimumEpsilon <= 1))
+        {
+            throw new IllegalArgumentException("Minimum epsilon must be between 0 and 1 but was " + minimumEpsilon);
+        }
+        if (!(decay > 0 && decay <= 1))
+        {
+            throw new IllegalArgumentException("Epsilon decay must be greater than 0 and at most 1 but was " + decay);
+        }
+        this.initialEpsilon = epsilon;
+        this.decay = decay;
+        this.minimumEpsilon = Math.min(minimumEpsilon, epsilon);
+        this.epsilon = epsilon;
+    }
+
+    /**
+     * @return the current exploration rate.
+     */
+    public double getEpsilon()
+    {
+        return epsilon;
+    }
+
+    @Override
+    public int chooseAction(QTable qTable, int stateIndex, RandomGenerator random)
+    {
+        if (random.nextDouble() < epsilon)
+        {
+            return random.nextInt(qTable.getNumberOfActions());
+        }
+        return qTable.getBestAction(stateIndex);
+    }
+
+    @Override
+    public void endEpisode()
+    {
+        epsilon = Math.max(minimumEpsilon, epsilon * decay);
+    }
+
+    @Override
+    public void reset()
+    {
+        epsilon = initialEpsilon;
+    }
+}
@@ -27,4 +27,15 @@ public class Exceptions {
             return "The optimal policy has not been created yet";
         }
     }
+
+    /**
+     * An error that occurs when a Python worker exits while the engine is still waiting on it.
+     */
+    public static class PythonExitException extends NullPointerException
+    {
+        public PythonExitException(String message)
+        {
+            super(message);
+        }
+    }
 }
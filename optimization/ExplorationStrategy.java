@@ -0,0 +1,41 @@
+package optimization;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * Decides which action {@link QLearningEngine} takes in a state: the best one according to the Q-Table, or another
+ * one to learn more about it.
+ *
+ * Strategies keep their state in primitive arrays, so choosing an action costs at most one pass over the row of the
+ * state and does not allocate.
+ * <ul>
+ *     <li> {@link EpsilonGreedyExploration}: a random action at a rate epsilon, which can decay every episode.
+ *     <li> {@link BoltzmannExploration}: an action drawn from the softmax of the row.
+ *     <li> {@link UcbExploration}: UCB1, the action with the best value plus a bonus for being rarely tried.
+ * </ul>
+ */
+public interface ExplorationStrategy {
+
+    /**
+     * Pick the action to take.
+     * @param qTable - the current Q-Table.
+     * @param stateIndex - the index of the state the action is taken in.
+     * @param random - the generator to draw from.
+     * @return the index of the action.
+     */
+    int chooseAction(QTable qTable, int stateIndex, RandomGenerator random);
+
+    /**
+     * Called by the engine every time an episode ends. Used by decaying schedules.
+     */
+    default void endEpisode()
+    {
+    }
+
+    /**
+     * Forget everything learned so far, to match a fresh instantiation.
+     */
+    default void reset()
+    {
+    }
+}
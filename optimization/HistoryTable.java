@@ -3,7 +3,6 @@ package optimization;
 import state.StateSpaceManager;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
@@ -25,6 +24,11 @@ public class HistoryTable {
      */
     private final List<Result> history = new ArrayList<>();
 
+    /**
+     * Whether history.csv is written gzip-compressed, as history.csv.gz, see {@link ChunkedCsvWriter}.
+     */
+    private boolean compressedOutput = false;
+
     public HistoryTable(File saveFolder)
     {
         this.saveFolder = saveFolder;
@@ -36,26 +40,35 @@ public class HistoryTable {
     }
 
     /**
-     * Write the current history to history.csv.
+     * Write history.csv.gz, block-compressed with a row index, instead of history.csv.
+     * @param compressed - whether to compress the output.
      */
-    public void writeToFile()
+    public void setCompressedOutput(boolean compressed)
     {
-        try {
-            FileWriter writer = new FileWriter(new File(saveFolder, "history.csv"));
-            writer.write("State,Action,New State,Probability,Reward");
-
-            for(Result result: history){
-                String delimiter = ",";
-                writer.write(System.lineSeparator());
-                String row = result.oldState + delimiter +
-                        result.actions + delimiter +
-                        result.newState + delimiter +
-                        result.probability + delimiter +
-                        result.score + delimiter;
-                writer.write(row);
-            }
+        this.compressedOutput = compressed;
+    }
 
-            writer.close();
+    /**
+     * Write the current history to history.csv, or history.csv.gz when the output is compressed.
+     * Rows are formatted in parallel and streamed to disk in order, see {@link ChunkedCsvWriter}.
+     */
+    public void writeToFile()
+    {
+        File file = new File(saveFolder, compressedOutput ? "history.csv.gz" : "history.csv");
+        try (ChunkedCsvWriter writer = new ChunkedCsvWriter(file, compressedOutput))
+        {
+            String delimiter = ",";
+            String lineSeparator = System.lineSeparator();
+            writer.write("State,Action,New State,Probability,Reward" + lineSeparator);
+            writer.writeRows(history.size(), (row, out) -> {
+                Result result = history.get(row);
+                out.append(result.oldState).append(delimiter)
+                        .append(result.actions).append(delimiter)
+                        .append(result.newState).append(delimiter)
+                        .append(result.probability).append(delimiter)
+                        .append(result.score).append(delimiter)
+                        .append(lineSeparator);
+            });
         } catch (IOException err)
         {
             Exceptions.LOGGER.severe("Unable to write history", err);
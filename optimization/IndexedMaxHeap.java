@@ -0,0 +1,155 @@
+package optimization;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * A binary max-heap of int keys in {@code [0, capacity)} with double priorities.
+ *
+ * Each key is in the heap at most once, and its position is tracked so its priority can be raised in place.
+ * Used as the prioritized-sweeping queue of {@link QLearningEngine}, keyed by
+ * {@code stateIndex * numberOfActions + actionIndex}.
+ */
+public class IndexedMaxHeap {
+
+    private int[] keys = new int[16];
+    private double[] priorities = new double[16];
+    private int size = 0;
+
+    /**
+     * The heap position of every key, plus one. 0 means the key is not in the heap.
+     */
+    private final int[] positions;
+
+    /**
+     * @param capacity - the number of possible keys.
+     */
+    public IndexedMaxHeap(int capacity)
+    {
+        this.positions = new int[capacity];
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    public boolean contains(int key)
+    {
+        return positions[key] != 0;
+    }
+
+    /**
+     * @param key - the key.
+     * @return the priority of a key, or 0 if it is not in the heap.
+     */
+    public double getPriority(int key)
+    {
+        return contains(key) ? priorities[positions[key] - 1] : 0;
+    }
+
+    /**
+     * Insert a key, or raise its priority if it is already in the heap. A lower priority is ignored.
+     * @param key - the key.
+     * @param priority - the priority.
+     */
+    public void raise(int key, double priority)
+    {
+        int position = positions[key] - 1;
+        if (position < 0)
+        {
+            if (size == keys.length)
+            {
+                keys = Arrays.copyOf(keys, size * 2);
+                priorities = Arrays.copyOf(priorities, size * 2);
+            }
+            position = size++;
+        } else if (priority <= priorities[position])
+        {
+            return;
+        }
+        siftUp(position, key, priority);
+    }
+
+    /**
+     * @return the key with the highest priority, without removing it.
+     */
+    public int peek()
+    {
+        if (size == 0)
+        {
+            throw new NoSuchElementException();
+        }
+        return keys[0];
+    }
+
+    /**
+     * @return the key with the highest priority, after removing it.
+     */
+    public int poll()
+    {
+        int top = peek();
+        positions[top] = 0;
+        if (--size > 0)
+        {
+            siftDown(0, keys[size], priorities[size]);
+        }
+        return top;
+    }
+
+    public void clear()
+    {
+        for (int i = 0; i < size; i++)
+        {
+            positions[keys[i]] = 0;
+        }
+        size = 0;
+    }
+
+    private void siftUp(int position, int key, double priority)
+    {
+        while (position > 0)
+        {
+            int parent = (position - 1) >>> 1;
+            if (priorities[parent] >= priority)
+            {
+                break;
+            }
+            place(position, keys[parent], priorities[parent]);
+            position = parent;
+        }
+        place(position, key, priority);
+    }
+
+    private void siftDown(int position, int key, double priority)
+    {
+        int half = size >>> 1;
+        while (position < half)
+        {
+            int child = 2 * position + 1;
+            if (child + 1 < size && priorities[child + 1] > priorities[child])
+            {
+                child++;
+            }
+            if (priority >= priorities[child])
+            {
+                break;
+            }
+            place(position, keys[child], priorities[child]);
+            position = child;
+        }
+        place(position, key, priority);
+    }
+
+    private void place(int position, int key, double priority)
+    {
+        keys[position] = key;
+        priorities[position] = priority;
+        positions[key] = position + 1;
+    }
+}
@@ -0,0 +1,126 @@
+package optimization;
+
+import java.util.*;
+
+/**
+ * The best action and its value for every state, stored as two primitive arrays.
+ *
+ * Also a read-only {@code Map<Integer, Map<Integer, Double>>} from state to a single {action: value} entry, which is
+ * the shape {@link OptimizationEngine#getResults()} returns. The inner maps are created on demand, so large policies
+ * do not allocate one map per state up front.
+ *
+ * The arrays may be split into pages of equal length, so policy snapshots can share the pages that did not change
+ * with the snapshot before them, see {@link QTable#publishSnapshot()}.
+ */
+public class Policy extends AbstractMap<Integer, Map<Integer, Double>> {
+
+    private final int[][] actionPages;
+    private final double[][] valuePages;
+    private final int pageShift;
+    private final int pageMask;
+    private final int size;
+
+    /**
+     * @param bestActions - the best action of each state. The array is not copied.
+     * @param bestValues - the value of that action. The array is not copied.
+     */
+    public Policy(int[] bestActions, double[] bestValues)
+    {
+        this(new int[][]{bestActions}, new double[][]{bestValues}, 31, bestActions.length);
+    }
+
+    /**
+     * @param actionPages - the best actions, page by page. The arrays are not copied.
+     * @param valuePages - the values of those actions, page by page. The arrays are not copied.
+     * @param pageShift - each page holds 2^pageShift states.
+     * @param size - the number of states.
+     */
+    Policy(int[][] actionPages, double[][] valuePages, int pageShift, int size)
+    {
+        this.actionPages = actionPages;
+        this.valuePages = valuePages;
+        this.pageShift = pageShift;
+        this.pageMask = -1 >>> (32 - pageShift);
+        this.size = size;
+    }
+
+    /**
+     * @param stateIndex - the index of the state in the state space manager.
+     * @return the index of the best action.
+     */
+    public int getBestAction(int stateIndex)
+    {
+        return actionPages[stateIndex >>> pageShift][stateIndex & pageMask];
+    }
+
+    /**
+     * @param stateIndex - the index of the state in the state space manager.
+     * @return the value of the best action.
+     */
+    public double getBestValue(int stateIndex)
+    {
+        return valuePages[stateIndex >>> pageShift][stateIndex & pageMask];
+    }
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object key)
+    {
+        return key instanceof Integer && (Integer) key >= 0 && (Integer) key < size;
+    }
+
+    @Override
+    public Map<Integer, Double> get(Object key)
+    {
+        if (!containsKey(key))
+        {
+            return null;
+        }
+        int stateIndex = (Integer) key;
+        return Map.of(getBestAction(stateIndex), getBestValue(stateIndex));
+    }
+
+    @Override
+    public Set<Entry<Integer, Map<Integer, Double>>> entrySet()
+    {
+        return new AbstractSet<>()
+        {
+            @Override
+            public Iterator<Entry<Integer, Map<Integer, Double>>> iterator()
+            {
+                return new Iterator<>()
+                {
+                    private int stateIndex = 0;
+
+                    @Override
+                    public boolean hasNext()
+                    {
+                        return stateIndex < size;
+                    }
+
+                    @Override
+                    public Entry<Integer, Map<Integer, Double>> next()
+                    {
+                        if (!hasNext())
+                        {
+                            throw new NoSuchElementException();
+                        }
+                        int key = stateIndex++;
+                        return new SimpleImmutableEntry<>(key, get(key));
+                    }
+                };
+            }
+
+            @Override
+            public int size()
+            {
+                return size;
+            }
+        };
+    }
+}
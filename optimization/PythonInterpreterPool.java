@@ -0,0 +1,207 @@
+package optimization;
+
+import com.eclipsesource.json.JsonObject;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Warm Python interpreters that start user scripts in milliseconds.
+ *
+ * Each pool runs IPC/__zygote__.py once per Python executable. The zygote imports gym and numpy (or whatever
+ * TAIL_PRELOAD lists) up front, then forks a fresh child for every lease, so the child starts with its dependencies
+ * already loaded and the interpreter startup, runner.sh checks and imports are only paid once per JVM. Children are
+ * independent processes: releasing a lease stops the child and leaves the zygote warm for the next one.
+ *
+ * The zygote reaps its children and reports how each one exited, so a lease completes with the real exit code.
+ *
+ * Forking requires a POSIX system.
+ */
+public class PythonInterpreterPool {
+
+    /**
+     * A child started for a lease.
+     */
+    public static final class Lease
+    {
+        private final ProcessHandle process;
+        private final CompletableFuture<Integer> exit;
+
+        Lease(ProcessHandle process, CompletableFuture<Integer> exit)
+        {
+            this.process = process;
+            this.exit = exit;
+        }
+
+        /**
+         * @return (nullable) the child process. Null when it exited before it could be looked up. Destroy it to
+         * release the lease.
+         */
+        public ProcessHandle getProcess()
+        {
+            return process;
+        }
+
+        /**
+         * @return completes with the exit code of the child, 128 plus the signal number when it was killed, or -1
+         * when the warm interpreter exited first.
+         */
+        public CompletableFuture<Integer> onExit()
+        {
+            return exit;
+        }
+    }
+
+    private static final Map<String, PythonInterpreterPool> POOLS = new HashMap<>();
+
+    private final Process zygote;
+    private final BufferedWriter requests;
+    private final BufferedReader replies;
+
+    /**
+     * The pid replies to lease requests, in order, paired with the exit of the child. Filled by the reply reader.
+     */
+    private final BlockingQueue<Lease> started = new LinkedBlockingQueue<>();
+
+    /**
+     * The exits of children the reply reader saw either the pid or the exit of, but not both yet. Only used by the
+     * reply reader.
+     */
+    private final Map<Long, CompletableFuture<Integer>> exits = new HashMap<>();
+
+    /**
+     * @param pythonPath - (nullable) the Python interpreter. Defaults to "python".
+     * @return the pool for an interpreter, started on first use and stopped when the JVM exits.
+     */
+    public static synchronized PythonInterpreterPool get(File pythonPath) throws IOException
+    {
+        String pythonExe = pythonPath == null ? "python" : pythonPath.getAbsolutePath();
+        PythonInterpreterPool pool = POOLS.get(pythonExe);
+        if (pool == null || !pool.zygote.isAlive())
+        {
+            pool = new PythonInterpreterPool(pythonExe);
+            POOLS.put(pythonExe, pool);
+        }
+        return pool;
+    }
+
+    private PythonInterpreterPool(String pythonExe) throws IOException
+    {
+        ProcessBuilder builder = new ProcessBuilder(pythonExe, new File("IPC/__zygote__.py").getAbsolutePath());
+        builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+        zygote = builder.start();
+        requests = new BufferedWriter(new OutputStreamWriter(zygote.getOutputStream(), StandardCharsets.UTF_8));
+        replies = new BufferedReader(new InputStreamReader(zygote.getInputStream(), StandardCharsets.UTF_8));
+        if (!"ready".equals(replies.readLine()))
+        {
+            zygote.destroyForcibly();
+            throw new IOException("Python interpreter pool failed to start " + pythonExe);
+        }
+        Thread reader = new Thread(this::readReplies);
+        reader.setName("TAIL_PYTHON_POOL");
+        reader.setDaemon(true);
+        reader.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(zygote::destroy));
+    }
+
+    /**
+     * Read the zygote's replies: pids go to lease in order, exits complete the lease of the child. The zygote can
+     * report an exit before the pid of a child that exited right away, so whichever comes first leaves the future
+     * for the other. When the zygote exits, every lease waiting for an exit completes with -1.
+     */
+    private void readReplies()
+    {
+        try {
+            String line;
+            while ((line = replies.readLine()) != null)
+            {
+                line = line.trim();
+                if (line.startsWith("exit "))
+                {
+                    String[] parts = line.split(" ");
+                    long pid = Long.parseLong(parts[1]);
+                    CompletableFuture<Integer> exit = exits.remove(pid);
+                    if (exit == null)
+                    {
+                        exit = new CompletableFuture<>();
+                        exits.put(pid, exit);
+                    }
+                    exit.complete(Integer.parseInt(parts[2]));
+                } else if (line.equals("-1"))
+                {
+                    started.add(new Lease(null, null));
+                } else if (!line.isEmpty())
+                {
+                    long pid = Long.parseLong(line);
+                    CompletableFuture<Integer> exit = exits.remove(pid);
+                    if (exit == null)
+                    {
+                        exit = new CompletableFuture<>();
+                        exits.put(pid, exit);
+                    }
+                    started.add(new Lease(ProcessHandle.of(pid).orElse(null), exit));
+                }
+            }
+        } catch (IOException | RuntimeException err)
+        {
+            Exceptions.LOGGER.warning("Unable to read from the Python interpreter pool", err);
+        }
+        exits.values().forEach(exit -> exit.complete(-1));
+        exits.clear();
+        started.add(new Lease(null, null));
+    }
+
+    /**
+     * Run a script in a fresh child of the warm interpreter.
+     * @param script - the script to run as __main__.
+     * @param directory - the working directory of the child.
+     * @param environment - variables added to the child's environment.
+     * @param out - where stdout goes.
+     * @param err - where stderr goes.
+     * @return the child and its exit.
+     */
+    public synchronized Lease lease(File script, File directory, Map<String, String> environment, File out, File err) throws IOException
+    {
+        if (!zygote.isAlive())
+        {
+            throw new IOException("Python interpreter pool exited");
+        }
+        JsonObject env = new JsonObject();
+        environment.forEach(env::add);
+        JsonObject request = new JsonObject()
+                .add("script", script.getAbsolutePath())
+                .add("cwd", directory.getAbsolutePath())
+                .add("stdout", out.getAbsolutePath())
+                .add("stderr", err.getAbsolutePath())
+                .add("env", env);
+        requests.write(request.toString());
+        requests.newLine();
+        requests.flush();
+        Lease lease;
+        try {
+            lease = started.take();
+        } catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while starting " + script);
+        }
+        if (lease.exit == null)
+        {
+            throw new IOException(zygote.isAlive() ? "Python interpreter pool could not start " + script : "Python interpreter pool exited");
+        }
+        return lease;
+    }
+
+    /**
+     * Stop the warm interpreter. Children that are still running are not affected.
+     */
+    public synchronized void destroy()
+    {
+        zygote.destroy();
+    }
+}
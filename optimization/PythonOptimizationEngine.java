@@ -1,8 +1,11 @@
 package optimization;
 
+import IPC.Server;
+import IPC.SharedMemoryServer;
 import IPC.SocketData;
 import IPC.SocketServer;
-import IPC.SocketWorker;
+import IPC.Transport;
+import IPC.Worker;
 import com.eclipsesource.json.Json;
 import com.eclipsesource.json.JsonArray;
 import com.eclipsesource.json.JsonObject;
@@ -13,33 +16,139 @@ import state.StateEnumeration;
 import state.StateSpaceManager;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.*;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.random.RandomGenerator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class PythonOptimizationEngine implements OptimizationEngine {
     protected transient static Logger LOGGER = Logger.getLogger(ValueIterationEngine.class);
 
+    /**
+     * Queued in place of an action when a Python worker crashes, so a waiting selectNextState wakes up.
+     */
+    private static final String WORKER_EXITED = "$WORKER_EXITED";
+
+    /**
+     * Queued by reset(), so a selectNextState waiting on Python lets go of selectLock.
+     */
+    private static final String ENGINE_RESET = "$ENGINE_RESET";
+
+    /**
+     * Queued when the last Python worker finished cleanly, so a waiting selectNextState wakes up.
+     */
+    private static final String WORKERS_FINISHED = "$WORKERS_FINISHED";
+
+    /**
+     * How long a worker that exited with code 0 may take to have its goodbye delivered before it counts as a crash.
+     */
+    private static final long GOODBYE_TIMEOUT = 2000;
+
+    /**
+     * The actions Python asked for in one message. Results are sent back once every excursion of the batch has at
+     * least one result.
+     */
+    private static class Batch
+    {
+        final Worker worker;
+        final boolean vectorized;
+        final Excursion[] excursions;
+        int resolved = 0;
+
+        Batch(Worker worker, boolean vectorized, int[] actions)
+        {
+            this.worker = worker;
+            this.vectorized = vectorized;
+            this.excursions = new Excursion[actions.length];
+            for (int slot = 0; slot < actions.length; slot++)
+            {
+                excursions[slot] = new Excursion(this, actions[slot]);
+            }
+        }
+    }
+
+    /**
+     * A state/action pair handed out by selectNextState that is waiting for its first result.
+     */
+    private static class Excursion
+    {
+        final Batch batch;
+        final int actionIndex;
+        int stateIndex;
+        Result result;
+
+        Excursion(Batch batch, int actionIndex)
+        {
+            this.batch = batch;
+            this.actionIndex = actionIndex;
+        }
+    }
+
     private StateActionCache cache;
-    private ConcurrentLinkedQueue<SocketData> pythonActionQueue;
+    private LinkedBlockingQueue<SocketData> pythonActionQueue;
     private AtomicBoolean finished;
     private StateActionCache.VisitedStatesTracker visits;
     private QTable qTable;
     private HistoryTable history;
-    private PythonRunner pythonProcess;
+    private final List<PythonRunner> pythonProcesses = new CopyOnWriteArrayList<>();
     private StateSpaceManager manager;
+    private StateActionCodec codec;
+
+    private final List<Server> servers = new CopyOnWriteArrayList<>();
+    private Transport transport = Transport.SOCKET;
+    private int numberOfWorkers = 1;
+
+    /**
+     * The connections of the current run. A connection is only counted once, so a late "$DISCONNECT" from a run
+     * that was reset cannot end the next one.
+     */
+    private final Set<Worker> connectedWorkers = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The goodbyes ("$DISCONNECT:bye") of the current run, and the exits with code 0 matched to one of them. A socket
+     * does not tell which process is on the other end, so every clean exit needs a goodbye of its own.
+     * Guarded by exitLock.
+     */
+    private int goodbyes = 0;
+    private int cleanExits = 0;
+    private final Object exitLock = new Object();
+
+    private int batchSize = 1;
+    private boolean warmInterpreters = false;
+    private final Object selectLock = new Object();
+    private final Object resultLock = new Object();
+    private Batch currentBatch;
+    private int nextSlot;
 
-    private SocketWorker worker;
-    private int curStateIndex;
-    private int curActionIndex;
-    private SocketServer server;
-    private boolean ranThroughProcessResultsOnce = false;
+    /**
+     * Excursions waiting for their first result, by state/action pair, see {@link #pairKey(int, int)}. A pair has at
+     * most one outstanding excursion unless every state is taken, see {@link #getFreeState(int)}.
+     */
+    private final Map<Long, ArrayDeque<Excursion>> outstanding = new HashMap<>();
     private int maxVisits;
     private File pythonPath;
     private File pythonFile;
     private File saveLocation;
     private Boolean startedThreads = false;
 
+    /**
+     * Picks the state of every excursion. Only used while holding selectLock.
+     */
+    private SplittableRandom random = new SplittableRandom();
+
+    /**
+     * Picks which cached result goes back to Python. Split off random and only used while holding resultLock.
+     */
+    private RandomGenerator resultRandom = random.split();
+
+    /**
+     * Whether the workers get a TAIL_SEED, see {@link PythonOptimizationEngine#setSeed(long)}.
+     */
+    private boolean seeded = false;
+
 
     /**
      * Create a new engine instance.
@@ -76,25 +185,224 @@ public class PythonOptimizationEngine implements OptimizationEngine {
         this.manager = StateSpaceManager.getManager(this.saveLocation);
         this.maxVisits = 0;
         this.qTable = new QTable(this.saveLocation);
+        this.codec = new StateActionCodec(this.manager);
         this.history = new HistoryTable(this.saveLocation);
         this.cache = new StateActionCache();
-        this.pythonActionQueue = new ConcurrentLinkedQueue<>();
+        this.pythonActionQueue = new LinkedBlockingQueue<>();
         this.finished = new AtomicBoolean(false);
-        this.curStateIndex = manager.getIDForState(manager.getDefaultState());
     }
 
     /**
-     * Start the socket server on port 8888.
-     * Then spawn create and run a TAIL_runner.py file on a separate thread.
+     * Start the socket server on port 8888, which every worker connects to, or one shared memory server per worker
+     * when configured. When 8888 is taken, for example by another engine in the same JVM, the server listens on an
+     * ephemeral port instead, which only gyms that connect to TAIL_PORT can reach.
+     * Then spawn create and run a TAIL_runner.py file for every worker.
+     * Each Python process learns how to reach Java through the TAIL_TRANSPORT, TAIL_PORT and TAIL_SHM_PATH
+     * environment variables, and which worker it is, from 0, through TAIL_WORKER.
      */
     private void startSocketServerAndPythonThreads ()
     {
-        initSocketServer();
-        this.pythonProcess = new PythonRunner(pythonPath, pythonFile);
-        pythonProcess.run();
+        connectedWorkers.clear();
+        synchronized (exitLock)
+        {
+            goodbyes = 0;
+            cleanExits = 0;
+        }
+        for (int i = 0; i < numberOfWorkers; i++)
+        {
+            PythonRunner pythonProcess = new PythonRunner(pythonPath, pythonFile);
+            if (warmInterpreters)
+            {
+                try {
+                    pythonProcess.setInterpreterPool(PythonInterpreterPool.get(pythonPath));
+                } catch (IOException err)
+                {
+                    LOGGER.severe("Unable to start warm Python interpreter, starting a new one instead", err);
+                }
+            }
+            pythonProcess.setEnvironment("TAIL_TRANSPORT", transport.name());
+            pythonProcess.setEnvironment("TAIL_WORKER", String.valueOf(i));
+            if (seeded)
+            {
+                pythonProcess.setEnvironment("TAIL_SEED", String.valueOf(random.nextLong() & Long.MAX_VALUE));
+            }
+            if (transport == Transport.SHARED_MEMORY)
+            {
+                SharedMemoryServer server = new SharedMemoryServer("TAIL_" + ProcessHandle.current().pid() + "_" + System.identityHashCode(this) + "_" + i);
+                initSocketServer(server);
+                pythonProcess.setEnvironment("TAIL_SHM_PATH", server.getFile().getAbsolutePath());
+            } else {
+                if (servers.isEmpty())
+                {
+                    SocketServer server = new SocketServer();
+                    if (!server.isBound())
+                    {
+                        server.destroy();
+                        server = new SocketServer("127.0.0.1", 0);
+                        LOGGER.warning(String.format("Port 8888 is taken, most likely by another engine. Listening on port %d instead, "
+                                + "only gyms that connect to TAIL_PORT can reach this engine", server.getPort()));
+                    }
+                    initSocketServer(server);
+                }
+                pythonProcess.setEnvironment("TAIL_PORT", String.valueOf(((SocketServer) servers.get(0)).getPort()));
+            }
+            pythonProcesses.add(pythonProcess);
+            pythonProcess.onExit().thenAcceptAsync(exitCode -> onPythonExit(pythonProcess, exitCode));
+            pythonProcess.run();
+        }
+        for (int i = 0; i < numberOfWorkers; i++)
+        {
+            servers.get(transport == Transport.SHARED_MEMORY ? i : 0).waitForConnection();
+        }
         startedThreads = true;
     }
 
+    /**
+     * Called when a Python process exits. Exits caused by destroyPythonThreads are expected. A worker that said
+     * goodbye and exited with code 0 finished: it is dropped, the others keep running, and the engine finishes with
+     * the last disconnect. Any other exit is a crash: its output is logged, the engine finishes, and a
+     * selectNextState waiting on Python is woken up.
+     * @param runner - the process that exited.
+     * @param exitCode - its exit code, or -1 when unknown.
+     */
+    private void onPythonExit(PythonRunner runner, int exitCode)
+    {
+        if (runner.isStopping())
+        {
+            return;
+        }
+        if (exitCode == 0 && awaitGoodbye())
+        {
+            pythonProcesses.remove(runner);
+            if (pythonProcesses.isEmpty())
+            {
+                pythonActionQueue.offer(new SocketData(null, WORKERS_FINISHED));
+            }
+            return;
+        }
+        LOGGER.severe(String.format("Python worker exited unexpectedly (exit code %d):%s%s", exitCode,
+                System.lineSeparator(), String.join(System.lineSeparator(), runner.getRecentOutput())));
+        finished.set(true);
+        servers.forEach(Server::destroy);
+        pythonActionQueue.offer(new SocketData(String.valueOf(exitCode), WORKER_EXITED));
+    }
+
+    /**
+     * Match a clean exit to a goodbye of the current run. The goodbye is read on another thread and may be delivered
+     * shortly after the exit is noticed, so this waits for it up to GOODBYE_TIMEOUT.
+     * @return whether a goodbye was left for this exit.
+     */
+    private boolean awaitGoodbye()
+    {
+        long deadline = System.currentTimeMillis() + GOODBYE_TIMEOUT;
+        synchronized (exitLock)
+        {
+            long remaining;
+            while (goodbyes <= cleanExits && (remaining = deadline - System.currentTimeMillis()) > 0)
+            {
+                try {
+                    exitLock.wait(remaining);
+                } catch (InterruptedException err)
+                {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            if (goodbyes <= cleanExits)
+            {
+                return false;
+            }
+            cleanExits++;
+            return true;
+        }
+    }
+
+    /**
+     * Stop every Python process and server.
+     */
+    private void destroyPythonThreads()
+    {
+        pythonProcesses.forEach(PythonRunner::destroy);
+        pythonProcesses.clear();
+        servers.forEach(Server::destroy);
+        servers.clear();
+    }
+
+    /**
+     * Set how many Python processes learn at the same time. Each one gets its own connection, and selectNextState
+     * serves whichever process asks for its next step first, so busy workers never hold up idle ones.
+     * Must be set before the first call to selectNextState.
+     * @param numberOfWorkers - the number of Python processes.
+     */
+    public void setNumberOfWorkers(int numberOfWorkers)
+    {
+        if (numberOfWorkers < 1)
+        {
+            LOGGER.severe("Number of workers must be greater than 0");
+            return;
+        }
+        this.numberOfWorkers = numberOfWorkers;
+    }
+
+    /**
+     * Choose how Java and Python exchange messages. Must be set before the first call to selectNextState.
+     * Shared memory avoids the kernel round-trip of the loopback socket but requires both processes to run on the
+     * same x86 host, and a gym that attaches through IPC/shm_transport.py's connect() instead of its socket. On other
+     * CPUs the socket is kept, see {@link SharedMemoryServer#isSupported()}.
+     * @param transport - the transport to use. Defaults to {@link Transport#SOCKET}.
+     */
+    public void setTransport(Transport transport)
+    {
+        if (transport == Transport.SHARED_MEMORY && !SharedMemoryServer.isSupported())
+        {
+            LOGGER.severe("Shared memory is only supported on x86, using the socket instead");
+            return;
+        }
+        this.transport = transport;
+    }
+
+    /**
+     * Start Python workers from a warm interpreter that has already imported gym and numpy, see
+     * {@link PythonInterpreterPool}. The interpreter is shared by every engine in the JVM, so repeated runs and
+     * test suites only pay for Python startup once. reset() releases the workers, the interpreter stays warm.
+     * Must be set before the first call to selectNextState.
+     * @param warmInterpreters - whether to use the pool.
+     */
+    public void setWarmInterpreters(boolean warmInterpreters)
+    {
+        this.warmInterpreters = warmInterpreters;
+    }
+
+    /**
+     * Seed every random choice of the engine, so that runs with the same seed and the same results explore the same
+     * states. Each Python worker gets its own seed through the TAIL_SEED environment variable, which the runner uses
+     * to seed Python's random module and numpy. Must be set before the first call to selectNextState.
+     * @param seed - the seed.
+     */
+    public void setSeed(long seed)
+    {
+        synchronized (selectLock)
+        {
+            random = new SplittableRandom(seed);
+            synchronized (resultLock)
+            {
+                resultRandom = random.split();
+            }
+            seeded = true;
+        }
+    }
+
+    /**
+     * Write qtable.csv.gz and history.csv.gz instead of qtable.csv and history.csv, block-compressed with a row
+     * index, see {@link ChunkedCsvWriter} and {@link ChunkedCsvReader}.
+     * @param compressed - whether to compress the output.
+     */
+    public void setCompressedOutput(boolean compressed)
+    {
+        qTable.setCompressedOutput(compressed);
+        history.setCompressedOutput(compressed);
+    }
+
     /**
      * Set the maximum visits for each state before force quitting.
      * @param maxVisits - The maximum number of visits for each state.
@@ -105,30 +413,61 @@ public class PythonOptimizationEngine implements OptimizationEngine {
         this.visits = new StateActionCache.VisitedStatesTracker(manager, maxVisits);
     }
 
+    /**
+     * Set how many environments Python steps per message. With a size above 1 the gym is expected to be a
+     * VectorEnv: it sends the actions of every environment on the "step_batch" channel and receives all of their
+     * rewards, observations and done flags in a single reply. Must be set before the first call to selectNextState.
+     * @param batchSize - the number of environments per round-trip.
+     */
+    public void setBatchSize(int batchSize)
+    {
+        if (batchSize < 1)
+        {
+            LOGGER.severe("Batch size must be greater than 0");
+            return;
+        }
+        this.batchSize = batchSize;
+    }
+
     /**
      * Determine the next state/action that should be explored
-     * Reset a boolean that determines if results have already been sent to Python.
+     * Actions come from the most recent batch Python sent. Once every action of that batch has been handed out, wait
+     * for the next one.
      * @return The IDs of the next state and action to explore are returned, respectively
      */
     @Override
     public int[] selectNextState() {
-        if (!startedThreads)
+        synchronized (selectLock)
         {
-            startSocketServerAndPythonThreads();
-        }
-        curActionIndex = waitForNextPythonAction();
+            if (!startedThreads)
+            {
+                startSocketServerAndPythonThreads();
+            }
+            if (currentBatch == null || nextSlot == currentBatch.excursions.length)
+            {
+                currentBatch = waitForNextPythonBatch();
+                nextSlot = 0;
+            }
+            Excursion excursion = currentBatch.excursions[nextSlot++];
+            synchronized (resultLock)
+            {
+                excursion.stateIndex = getFreeState(excursion.actionIndex);
+                outstanding.computeIfAbsent(pairKey(excursion.stateIndex, excursion.actionIndex), key -> new ArrayDeque<>()).add(excursion);
+            }
 
-        int[] newState = new int[2];
-        newState[ACTION_INDEX] = curActionIndex;
-        newState[STATE_INDEX] = getRandomState();
-        ranThroughProcessResultsOnce = false;
-        return newState;
+            int[] newState = new int[2];
+            newState[ACTION_INDEX] = excursion.actionIndex;
+            newState[STATE_INDEX] = excursion.stateIndex;
+            return newState;
+        }
     }
 
     /**
      * Store the results of an excursion, performing any necessary housekeeping operations
-     * Stores all results in a cache and only chooses one random result to send to Python.
+     * Stores all results in a cache and only chooses one random result per excursion to send to Python.
      * This single selection allows the Java/Python IPC to stay synchronized.
+     * The excursion a result belongs to is found by its state and action, which no other outstanding excursion
+     * shares, so excursions may finish in any order and extra results of a finished excursion never resolve another.
      *
      * @param oldState    beginning state of the excursion
      * @param action      action taken
@@ -138,53 +477,136 @@ public class PythonOptimizationEngine implements OptimizationEngine {
      */
     @Override
     public void processResults(State oldState, List<ActionEnumeration> action, State newState, double probability, double score) {
-        cache.add(curStateIndex, curActionIndex, oldState, action, newState, probability, score);
-        if (!ranThroughProcessResultsOnce) {
-            sendRandomCachedResultToPython();
-            ranThroughProcessResultsOnce = true;
+        int stateIndex = codec.encodeState(oldState);
+        int actionIndex = codec.encodeActions(action);
+        Result result = new Result(oldState, action, newState, probability, score, stateIndex, actionIndex, codec.encodeState(newState));
+        synchronized (resultLock)
+        {
+            cache.add(stateIndex, actionIndex, result);
+            Excursion excursion = removeOutstanding(stateIndex, actionIndex);
+            if (excursion == null)
+            {
+                return;
+            }
+            excursion.result = cache.chooseOne(stateIndex, actionIndex, resultRandom);
+            Batch batch = excursion.batch;
+            if (++batch.resolved == batch.excursions.length)
+            {
+                sendBatchToPython(batch);
+            }
         }
-//        curStateIndex = getRandomState();
     }
 
     /**
-     * A random result is pulled from the cache.
-     * The results are added to the q-table for future policy generation.
-     * The data is structured as JSON for easy reading/parsing and sent off to Python.
+     * Find and remove the outstanding excursion of a state/action pair. Results of excursions that already have one
+     * are only cached.
+     * @return the excursion or null.
      */
-    private void sendRandomCachedResultToPython()
+    private Excursion removeOutstanding(int stateIndex, int actionIndex)
     {
-        Result result = cache.chooseOne(curStateIndex, curActionIndex);
-
-        System.out.println(String.format("curState: %d", curStateIndex));
+        long key = pairKey(stateIndex, actionIndex);
+        ArrayDeque<Excursion> excursions = outstanding.get(key);
+        if (excursions == null)
+        {
+            return null;
+        }
+        Excursion excursion = excursions.poll();
+        if (excursions.isEmpty())
+        {
+            outstanding.remove(key);
+        }
+        return excursion;
+    }
 
-        int oldStateId = manager.getIDForState(result.oldState);
-        int newStateId = manager.getIDForState(result.newState);
-        int actionId   = manager.getIDForActions(result.actions);
+    private static long pairKey(int stateIndex, int actionIndex)
+    {
+        return ((long) stateIndex << 32) | (actionIndex & 0xFFFFFFFFL);
+    }
 
-        if (maxVisits > 0)
+    /**
+     * Pick a random state that has no outstanding excursion for the action, so the pair identifies the excursion its
+     * results belong to. The engine's callers report results by state and action only, so a unique pair is the only
+     * excursion ID available. A second excursion is only given a taken pair when every state is taken, and then
+     * waits behind the first. Called while holding both locks.
+     * @param actionIndex - the action of the excursion.
+     * @return the index of the state.
+     */
+    private int getFreeState(int actionIndex)
+    {
+        int stateIndex = getRandomState();
+        for (int attempt = 0; attempt < 8; attempt++)
         {
-            visits.add(newStateId, actionId);
-            if (visits.reachedMax())
+            if (!outstanding.containsKey(pairKey(stateIndex, actionIndex)))
             {
-                finished.set(true);
+                return stateIndex;
             }
+            stateIndex = getRandomState();
         }
+        // Mostly taken: scan for a free one.
+        int numberOfStates = manager.getNumberOfStates();
+        for (int offset = 0; offset < numberOfStates; offset++)
+        {
+            int candidate = (stateIndex + offset) % numberOfStates;
+            if (!outstanding.containsKey(pairKey(candidate, actionIndex)))
+            {
+                return candidate;
+            }
+        }
+        return stateIndex;
+    }
 
-        qTable.put(oldStateId, curActionIndex, result.score);
-        history.add(result);
+    /**
+     * The chosen results are added to the q-table for future policy generation.
+     * The data is structured as JSON for easy reading/parsing and sent off to Python. A single environment gets
+     * {"reward", "obs", "done"} on "step"; a vectorized one gets {"rewards", "obs", "dones"} on "step_batch" with one
+     * entry per environment, in the order the actions arrived.
+     */
+    private void sendBatchToPython(Batch batch)
+    {
+        JsonArray rewards = new JsonArray();
+        JsonArray observations = new JsonArray();
+        JsonArray dones = new JsonArray();
+        for (Excursion excursion : batch.excursions)
+        {
+            Result result = excursion.result;
+            int oldStateId = result.oldStateId;
+            int newStateId = result.newStateId;
+            int actionId   = result.actionId;
+
+            if (maxVisits > 0)
+            {
+                visits.add(newStateId, actionId);
+                if (visits.reachedMax())
+                {
+                    finished.set(true);
+                }
+            }
 
-        curActionIndex = actionId;
+            qTable.put(oldStateId, excursion.actionIndex, result.score);
+            history.add(result);
 
-        JsonArray obs = new JsonArray();
-        for (StateEnumeration<?> state: result.oldState.getValues()){
-            obs.add(((Number)state.getValueForEnum()).doubleValue());
+            JsonArray obs = new JsonArray();
+            for (StateEnumeration<?> state: result.oldState.getValues()){
+                obs.add(((Number)state.getValueForEnum()).doubleValue());
+            }
+            rewards.add(result.score);
+            observations.add(obs);
+            dones.add(finished.get());
         }
-        JsonObject message = new JsonObject();
-        message.add("reward", result.score);
-        message.add("obs", obs);
-        message.add("done", finished.get());
 
-        worker.send("step", message.toString());
+        JsonObject message = new JsonObject();
+        if (batch.vectorized)
+        {
+            message.add("rewards", rewards);
+            message.add("obs", observations);
+            message.add("dones", dones);
+            batch.worker.send("step_batch", message.toString());
+        } else {
+            message.add("reward", rewards.get(0));
+            message.add("obs", observations.get(0));
+            message.add("done", finished.get());
+            batch.worker.send("step", message.toString());
+        }
     }
 
     /**
@@ -205,8 +627,7 @@ public class PythonOptimizationEngine implements OptimizationEngine {
     @Override
     public void finishOptimization() {
         finished.set(true);
-        pythonProcess.destroy();
-        server.destroy();
+        destroyPythonThreads();
         System.out.println("TRYING TO FINISH OPTIMIZATION");
         qTable.writeToFile();
         history.writeToFile();
@@ -218,11 +639,19 @@ public class PythonOptimizationEngine implements OptimizationEngine {
     @Override
     public void reset() {
         LOGGER.fine("ValueIterationEngine progress reset");
-        curActionIndex = 0;
-        curStateIndex = 0;
-        pythonProcess.destroy();
-        server.destroy();
-        startedThreads = false;
+        destroyPythonThreads();
+        pythonActionQueue.offer(new SocketData(null, ENGINE_RESET));
+        synchronized (selectLock)
+        {
+            synchronized (resultLock)
+            {
+                outstanding.clear();
+            }
+            currentBatch = null;
+            nextSlot = 0;
+            pythonActionQueue.clear();
+            startedThreads = false;
+        }
     }
 
     /**
@@ -267,22 +696,23 @@ public class PythonOptimizationEngine implements OptimizationEngine {
      */
     private int getRandomState()
     {
-        Random rand = new Random();
-        return rand.nextInt(manager.getNumberOfStates());
+        return random.nextInt(manager.getNumberOfStates());
     }
 
     /**
-     * Establish a new socket server and add event listeners for channels.
+     * Add event listeners for channels to a new server.
+     * @param server - the server Python processes will connect to.
      */
-    private void initSocketServer()
+    private void initSocketServer(Server server)
     {
-        server = new SocketServer();
+        servers.add(server);
 //        server.on("$MESSAGE", this::onSocketChannel__$MESSAGE);
         server.on("$ISSUE", this::onSocketChannel__$ISSUE);
         server.on("$CONNECT", this::onSocketChannel__$CONNECT);
         server.on("$DISCONNECT", this::onSocketChannel__$DISCONNECT);
         server.on("debug", this::onSocketChannel__debug);
         server.on("step", this::onSocketChannel__step);
+        server.on("step_batch", this::onSocketChannel__step);
         server.on("reset", this::onSocketChannel__reset);
     }
 
@@ -322,24 +752,42 @@ public class PythonOptimizationEngine implements OptimizationEngine {
      */
     private void onSocketChannel__$CONNECT(SocketData socket)
     {
-        worker = socket.worker;
+        connectedWorkers.add(socket.worker);
         JsonObject json = Json.object();
         json.add("num_of_states", manager.getNumberOfStates());
         json.add("num_of_actions", manager.getNumberOfActions());
         json.add("shape_of_states", manager.getPossibleStates().size());
         json.add("state_bounds", convertToJsonArray(getStateBounds()));
+        json.add("num_envs", batchSize);
 
-        worker.send("state_space", json.toString());
+        socket.worker.send("state_space", json.toString());
     }
 
 
     /**
      * When the Python process disconnects from the socket. This may be caused from unexpected or successful termination.
+     * A disconnect Python asked for carries "bye", and lets the process exit cleanly, see onPythonExit.
+     * The engine finishes once the last worker is gone.
      * @param socket data received from the socket
      */
     private void onSocketChannel__$DISCONNECT(SocketData socket)
     {
-        finished.set(true);
+        if (!connectedWorkers.remove(socket.worker))
+        {
+            return;
+        }
+        if ("bye".equals(socket.message))
+        {
+            synchronized (exitLock)
+            {
+                goodbyes++;
+                exitLock.notifyAll();
+            }
+        }
+        if (connectedWorkers.isEmpty())
+        {
+            finished.set(true);
+        }
         System.out.println("disconnected");
     }
 
@@ -354,6 +802,7 @@ public class PythonOptimizationEngine implements OptimizationEngine {
 
     /**
      * When the gym calls the step method, relevant data is sent in JSON format so Java can update its internal records.
+     * A VectorEnv sends the actions of all its environments at once on "step_batch".
      * @param socket data received from the socket
      */
     private void onSocketChannel__step(SocketData socket)
@@ -430,14 +879,42 @@ public class PythonOptimizationEngine implements OptimizationEngine {
     /**
      * Since the socket events execute on another thread, this method is called to pull the event data to the main
      * thread. Without this blocking method, selectNextState would continue with or without python changes.
+     * @return the actions Python asked for. "step" carries one action, "step_batch" a JSON array of actions.
+     * @throws Exceptions.PythonExitException when a Python worker crashed, or every worker finished.
      */
-    private int waitForNextPythonAction()
+    private Batch waitForNextPythonBatch()
     {
         SocketData socket;
-        do {
-            socket = pythonActionQueue.poll();
-        } while (socket == null);
-        return Integer.parseInt(socket.message);
+        try {
+            socket = pythonActionQueue.take();
+        } catch (InterruptedException err)
+        {
+            Thread.currentThread().interrupt();
+            throw new Exceptions.PythonExitException("Interrupted while waiting for Python");
+        }
+        if (socket.channel.equals(WORKER_EXITED))
+        {
+            throw new Exceptions.PythonExitException("Python worker exited with code " + socket.message);
+        }
+        if (socket.channel.equals(ENGINE_RESET))
+        {
+            throw new Exceptions.PythonExitException("The engine was reset while waiting for Python");
+        }
+        if (socket.channel.equals(WORKERS_FINISHED))
+        {
+            throw new Exceptions.PythonExitException("Every Python worker finished");
+        }
+        if (socket.channel.equals("step_batch"))
+        {
+            JsonArray json = Json.parse(socket.message).asArray();
+            int[] actions = new int[json.size()];
+            for (int i = 0; i < actions.length; i++)
+            {
+                actions[i] = json.get(i).asInt();
+            }
+            return new Batch(socket.worker, true, actions);
+        }
+        return new Batch(socket.worker, false, new int[] {Integer.parseInt(socket.message)});
     }
 
 }
@@ -1,20 +1,57 @@
 package optimization;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class PythonRunner {
 
+    /**
+     * The number of runners kept in a cache folder. The least recently used ones beyond this are deleted.
+     */
+    private static final int CACHED_RUNNERS = 8;
+
+    /**
+     * Starts the cached runner module. The script's folder comes first on the path, as with `python script`, and the
+     * cache folder after it so the module can be found.
+     */
+    private static final String LAUNCHER = String.join(System.lineSeparator(),
+            "import os",
+            "import runpy",
+            "import sys",
+            "if os.environ.get('TAIL_SCRIPT'):",
+            "    sys.path.insert(0, os.path.dirname(os.environ['TAIL_SCRIPT']))",
+            "runpy.run_module('TAIL_runner_%s', run_name='__main__', alter_sys=True)",
+            "");
+
     public final File pythonPath;
     public final File pythonFile;
     public final File runner;
+    private File runnerScript;
     private Process pythonProcess;
     private AtomicBoolean threadShouldStop = new AtomicBoolean(false);
+    private final Map<String, String> environment = new HashMap<>();
+    private PythonInterpreterPool pool;
+    private PythonInterpreterPool.Lease lease;
+    private final CompletableFuture<Integer> exit = new CompletableFuture<>();
+    private final OutputTail output = new OutputTail(200);
+    private long shutdownTimeout = 2000;
 
     public PythonRunner(File pythonPath, File pythonFile) {
         this.pythonFile = pythonFile;
         this.pythonPath = pythonPath;
         this.runner = new File("IPC/runner.sh");
+        this.environment.put("TAIL_IPC_PATH", runner.getAbsoluteFile().getParent());
+        this.environment.put("TAIL_SCRIPT", pythonFile.getAbsolutePath());
         createPythonRunner();
     }
 
@@ -23,14 +60,93 @@ public class PythonRunner {
      * is injected inside a try/except statement. The exception will generate a traceback and the $ISSUE channel will
      * be notified. However, the traceback line numbers will not be accurate, so the temporary file is not deleted for
      * debugging purposes.
+     *
+     * The generated code is cached in .__TAIL_cache__ next to the Python file, named by a hash of the template and the
+     * script, and only written when no cached copy exists. It is kept as a module, TAIL_runner_[hash].py, started by a
+     * small run_[hash].py launcher through runpy.run_module: Python never caches the bytecode of the script it is
+     * started with, but it does for imported modules, so the module's __pycache__ stays valid across runs.
+     *
+     * The runner still behaves as if the script was started directly: TAIL_SCRIPT tells the launcher to put the
+     * script's folder first on sys.path, and the template to point __file__ and sys.argv[0] at the script. Only the
+     * most recently used runners are kept, see {@link #CACHED_RUNNERS}.
      */
     private void createPythonRunner() {
         try {
-            File runner = new File(pythonFile.getParentFile().getAbsolutePath(), ".__TAIL_runner__.py");
-            runner.createNewFile();
-            FileWriter writer = new FileWriter(runner.getAbsolutePath());
-            BufferedReader reader = new BufferedReader(new FileReader("IPC/__runner__.py"));
-            BufferedReader inject = new BufferedReader(new FileReader(pythonFile.getAbsolutePath()));
+            File template = new File("IPC/__runner__.py");
+            String hash = hash(LAUNCHER, template, pythonFile);
+            File cache = new File(pythonFile.getParentFile().getAbsolutePath(), ".__TAIL_cache__");
+            File module = new File(cache, "TAIL_runner_" + hash + ".py");
+            runnerScript = new File(cache, "run_" + hash + ".py");
+            if (module.exists() && runnerScript.exists()) {
+                runnerScript.setLastModified(System.currentTimeMillis());
+                return;
+            }
+            Files.createDirectories(cache.toPath());
+            writeAtomically(module, generateRunner(template));
+            writeAtomically(runnerScript, String.format(LAUNCHER, hash));
+            evict(cache);
+        } catch (Exception err) {
+            err.printStackTrace();
+        }
+    }
+
+    /**
+     * Delete every runner in a cache folder but the most recently used ones, with their compiled bytecode.
+     * @param cache - the cache folder.
+     */
+    private static void evict(File cache) {
+        File[] launchers = cache.listFiles((folder, name) -> name.startsWith("run_") && name.endsWith(".py"));
+        if (launchers == null || launchers.length <= CACHED_RUNNERS) {
+            return;
+        }
+        Arrays.sort(launchers, Comparator.comparingLong(File::lastModified).reversed());
+        File bytecode = new File(cache, "__pycache__");
+        for (int i = CACHED_RUNNERS; i < launchers.length; i++) {
+            String name = launchers[i].getName();
+            String module = "TAIL_runner_" + name.substring("run_".length(), name.length() - ".py".length());
+            launchers[i].delete();
+            new File(cache, module + ".py").delete();
+            File[] compiled = bytecode.listFiles((folder, file) -> file.startsWith(module + "."));
+            if (compiled != null) {
+                for (File file : compiled) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * @param launcher - the launcher's code, so changing it invalidates the cache.
+     * @return the first 16 bytes of the SHA-256 of the launcher and every file, in hex.
+     */
+    private static String hash(String launcher, File... files) throws IOException, NoSuchAlgorithmException {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update(launcher.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        for (File file : files) {
+            digest.update(Files.readAllBytes(file.toPath()));
+            digest.update((byte) 0);
+        }
+        return HexFormat.of().formatHex(digest.digest(), 0, 16);
+    }
+
+    /**
+     * Write through a temporary file and a rename, so runs sharing the cache never see a partial file.
+     */
+    private static void writeAtomically(File file, String content) throws IOException {
+        File temporary = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+        Files.write(temporary.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Inject the Python file into the runner template.
+     * @param template - IPC/__runner__.py.
+     * @return the runner's code.
+     */
+    private String generateRunner(File template) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new FileReader(template));
+             BufferedReader inject = new BufferedReader(new FileReader(pythonFile.getAbsolutePath()))) {
             String line;
             StringBuilder code = new StringBuilder();
             StringBuilder imports = new StringBuilder();
@@ -50,20 +166,36 @@ public class PythonRunner {
                     }
                 }
             }
-            writer.write(imports.toString());
-            writer.write(code.toString());
-            inject.close();
-            reader.close();
-            writer.close();
-        } catch (Exception err) {
-            err.printStackTrace();
+            return imports.toString() + code;
         }
     }
 
 
+    /**
+     * Set an environment variable for the Python process. Used to tell the gym how to reach Java.
+     * Must be called before {@link #run()}.
+     * @param key - the variable name.
+     * @param value - the variable value.
+     */
+    public void setEnvironment(String key, String value) {
+        environment.put(key, value);
+    }
+
+    /**
+     * Run the script in a child of a warm interpreter instead of starting a new one through runner.sh.
+     * Must be called before {@link #run()}.
+     * @param pool - (nullable) the pool to lease from.
+     */
+    public void setInterpreterPool(PythonInterpreterPool pool) {
+        this.pool = pool;
+    }
+
     /**
      * Passes the python environment and the python file as arguments to a bash file. This is necessary so 3rd party
      * Python packages are resolved. For example, gym, numpy, pandas.
+     * stdout and stderr are forwarded to the logger as they are printed, and the last lines are kept for
+     * {@link #getRecentOutput()}. Leased processes write to temporary files instead, which are followed as they grow
+     * and deleted on exit.
      */
     public void run() {
         try {
@@ -76,74 +208,217 @@ public class PythonRunner {
                  pythonExe = pythonPath.getAbsolutePath();
              }
 
-             String py = pythonFile.getParentFile().getAbsolutePath() + "/.__TAIL_runner__.py";
-
-//             ProcessBuilder builder = new ProcessBuilder(runner.getAbsolutePath(), pythonExe, py);
-//             builder.redirectErrorStream(true);
-//             pythonProcess = builder.start();
+             String py = runnerScript.getAbsolutePath();
 
-            File out = new File("stdout"); // File to write stdout to
-            File err = new File("stderr"); // File to write stderr to
+            if (pool != null)
+            {
+                File out = File.createTempFile("TAIL_python", ".out");
+                File err = File.createTempFile("TAIL_python", ".err");
+                lease = pool.lease(new File(py), new File("test"), environment, out, err);
+                CompletableFuture<Integer> leaseExit = lease.onExit();
+                Thread stdout = follow(out, leaseExit, false);
+                Thread stderr = follow(err, leaseExit, true);
+                leaseExit.thenAccept(code -> {
+                    join(stdout, stderr);
+                    out.delete();
+                    err.delete();
+                    exit.complete(code);
+                });
+                return;
+            }
             ProcessBuilder builder = new ProcessBuilder();
             builder.directory(new File("test"));
             builder.command(runner.getAbsolutePath(), pythonExe, py);
-            builder.redirectOutput(out); // Redirect stdout to file
-            if(out == err) {
-                builder.redirectErrorStream(true); // Combine stderr into stdout
-            } else {
-                builder.redirectError(err); // Redirect stderr to file
-            }
+            builder.environment().putAll(environment);
             pythonProcess = builder.start();
+            Thread stdout = stream(pythonProcess.getInputStream(), false);
+            Thread stderr = stream(pythonProcess.getErrorStream(), true);
+            pythonProcess.onExit().thenAccept(process -> {
+                join(stdout, stderr);
+                exit.complete(process.exitValue());
+            });
+        } catch (Exception err)
+        {
+            pythonProcess = null;
+            output.add(err.toString());
+            exit.complete(-1);
+            err.printStackTrace();
+        }
+    }
 
+    /**
+     * Forward a stream of the Python process to the logger line by line, keeping the most recent lines.
+     */
+    private Thread stream(InputStream stream, boolean isError) {
+        return start(() -> {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    forward(line, isError);
+                }
+            } catch (IOException ignored) {
+                // The process is gone.
+            }
+        }, isError);
+    }
 
+    /**
+     * Forward a file a leased process writes to, like {@link #stream(InputStream, boolean)}, reading what was added
+     * every few milliseconds until the process exited and the rest of the file was read.
+     */
+    private Thread follow(File file, CompletableFuture<Integer> exited, boolean isError) {
+        return start(() -> {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            try (InputStream in = new FileInputStream(file)) {
+                while (true) {
+                    boolean done = exited.isDone();
+                    int read;
+                    while ((read = in.read(buffer)) > 0) {
+                        for (int i = 0; i < read; i++) {
+                            if (buffer[i] == '\n') {
+                                forward(line.toString(StandardCharsets.UTF_8), isError);
+                                line.reset();
+                            } else if (buffer[i] != '\r') {
+                                line.write(buffer[i]);
+                            }
+                        }
+                    }
+                    if (done) {
+                        break;
+                    }
+                    Thread.sleep(20);
+                }
+            } catch (IOException ignored) {
+                // Nothing was written.
+            } catch (InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+            }
+            if (line.size() > 0) {
+                forward(line.toString(StandardCharsets.UTF_8), isError);
+            }
+        }, isError);
+    }
 
-//             pythonProcess = Runtime.getRuntime().exec(new String[] {runner.getAbsolutePath(), pythonExe, py});
-//             Thread inThread = new Thread(()->{
-//                 InputStream in = pythonProcess.getInputStream();
-//                 BufferedReader inReader = new BufferedReader(new InputStreamReader(in));
-//                 String line = null;
-//                 while (!threadShouldStop.get())
-//                 {
-//                     try
-//                     {
-//                         line = inReader.readLine();
-//                         if (line != null) {
-//                             System.out.println(line);
-//                         }
-//                     } catch (IOException e) {
-//                         System.out.println("asdfasdf");
-//                         e.printStackTrace();
-//                         break;
-//                     }
-//                     System.out.flush();
-//                 }
-//             });
-//             inThread.setName("TAIL_READER");
-////             inThread.join();
-//             inThread.start();
-//
-//            Thread closeChildThread = new Thread() {
-//                public void run() {
-//                    System.out.println("DONE PYTHONRUNNER");
-//                    threadShouldStop.set(true);
-//                    pythonProcess.destroyForcibly();
-//                }
-//            };
-//
-//            Runtime.getRuntime().addShutdownHook(closeChildThread);
+    private Thread start(Runnable forwarder, boolean isError) {
+        Thread thread = new Thread(forwarder);
+        thread.setName(isError ? "TAIL_PYTHON_STDERR" : "TAIL_PYTHON_STDOUT");
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
 
+    private void forward(String line, boolean isError) {
+        output.add(line);
+        if (isError) {
+            Exceptions.LOGGER.warning("[python] " + line);
+        } else {
+            Exceptions.LOGGER.info("[python] " + line);
+        }
+    }
 
-        } catch (Exception err)
-        {
-            pythonProcess = null;
-            err.printStackTrace();
+    /**
+     * Wait for the output of an exited process to be forwarded, up to the shutdown timeout each.
+     */
+    private void join(Thread... forwarders) {
+        try {
+            for (Thread forwarder : forwarders) {
+                forwarder.join(shutdownTimeout);
+            }
+        } catch (InterruptedException ignored) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Completes when the Python process exits, including when it could not be started.
+     * @return the exit code, or -1 when it is unknown (failed starts, or a warm interpreter that exited first).
+     */
+    public CompletableFuture<Integer> onExit() {
+        return exit;
+    }
+
+    public boolean isAlive() {
+        if (lease != null) {
+            return !lease.onExit().isDone();
         }
+        return pythonProcess != null && pythonProcess.isAlive();
     }
 
+    /**
+     * @return whether {@link #destroy()} was called, so an exit is expected rather than a crash.
+     */
+    public boolean isStopping() {
+        return threadShouldStop.get();
+    }
+
+    /**
+     * @return the last lines Python printed to stdout and stderr, oldest first.
+     */
+    public List<String> getRecentOutput() {
+        return output.lines();
+    }
+
+    /**
+     * Set how long {@link #destroy()} waits for Python to exit before killing it.
+     * @param millis - the timeout in milliseconds.
+     */
+    public void setShutdownTimeout(long millis) {
+        this.shutdownTimeout = millis;
+    }
+
+    /**
+     * Ask Python and any processes it started to exit, then kill them if they have not exited within the shutdown
+     * timeout.
+     */
     public void destroy() {
-        if (pythonProcess != null) {
-            threadShouldStop.set(true);
-            pythonProcess.destroy();
+        threadShouldStop.set(true);
+        ProcessHandle handle = lease != null ? lease.getProcess() : pythonProcess != null ? pythonProcess.toHandle() : null;
+        if (handle == null || !handle.isAlive()) {
+            return;
+        }
+        List<ProcessHandle> processes = new ArrayList<>();
+        handle.descendants().forEach(processes::add);
+        processes.add(handle);
+        processes.forEach(ProcessHandle::destroy);
+        try {
+            CompletableFuture.allOf(processes.stream().map(ProcessHandle::onExit).toArray(CompletableFuture[]::new))
+                    .get(shutdownTimeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException err) {
+            Exceptions.LOGGER.warning("Python did not exit within " + shutdownTimeout + "ms, killing it");
+            processes.forEach(ProcessHandle::destroyForcibly);
+        } catch (InterruptedException err) {
+            Thread.currentThread().interrupt();
+            processes.forEach(ProcessHandle::destroyForcibly);
+        } catch (ExecutionException err) {
+            processes.forEach(ProcessHandle::destroyForcibly);
+        }
+    }
+
+    /**
+     * A fixed number of the most recent output lines.
+     */
+    private static class OutputTail {
+        private final String[] lines;
+        private int next = 0;
+        private int size = 0;
+
+        OutputTail(int capacity) {
+            this.lines = new String[capacity];
+        }
+
+        synchronized void add(String line) {
+            lines[next] = line;
+            next = (next + 1) % lines.length;
+            size = Math.min(size + 1, lines.length);
+        }
+
+        synchronized List<String> lines() {
+            List<String> result = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                result.add(lines[(next - size + i + lines.length) % lines.length]);
+            }
+            return result;
         }
     }
 }
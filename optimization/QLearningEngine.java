@@ -6,7 +6,13 @@ import state.State;
 import state.StateSpaceManager;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  *
@@ -16,6 +22,36 @@ public class QLearningEngine implements OptimizationEngine {
 
     protected transient static Logger LOGGER = Logger.getLogger(ValueIterationEngine.class);
 
+    /**
+     * An episode in flight when several run at once, see {@link QLearningEngine#setEpisodesInFlight(int)}.
+     * Each one has its own step counter, state and eligibility traces.
+     */
+    private static class Episode
+    {
+        int stateId;
+        int step = 0;
+        int outstanding = 0;
+        boolean retired = false;
+        EligibilityTraces traces;
+    }
+
+    /**
+     * A step handed out by selectNextState that is waiting for its result.
+     */
+    private static class Excursion
+    {
+        final Episode episode;
+        final int stateId;
+        final int actionId;
+
+        Excursion(Episode episode, int stateId, int actionId)
+        {
+            this.episode = episode;
+            this.stateId = stateId;
+            this.actionId = actionId;
+        }
+    }
+
     /**
      * The rate at which the algorithm explores.
      * Exploring means a random action is selected rather than choosing the best action.
@@ -26,6 +62,11 @@ public class QLearningEngine implements OptimizationEngine {
      */
     private double epsilon = 0.1;
 
+    /**
+     * How actions are chosen. Null uses epsilon-greedy with the fixed rate epsilon.
+     */
+    private ExplorationStrategy exploration;
+
     /**
      * The rate at which the algorithm learns.
      * <ul>
@@ -35,6 +76,25 @@ public class QLearningEngine implements OptimizationEngine {
      */
     private double alpha = 0.1;
 
+    /**
+     * The rate at which eligibility traces decay in Watkins Q(lambda).
+     * <ul>
+     *     <li> Setting to 0 uses one-step updates.
+     *     <li> Setting closer to 1 means rewards are credited further back along the episode.
+     * </ul>
+     */
+    private double lambda = 0;
+
+    /**
+     * Eligibility traces below this are dropped, which keeps the number of active traces small.
+     */
+    private double traceCutoff = 1e-3;
+
+    /**
+     * The active eligibility traces of the current episode.
+     */
+    private EligibilityTraces traces;
+
     /**
      * The rate at which rewards diminish.
      * Overtime, rewards my not be as valuable.
@@ -50,15 +110,10 @@ public class QLearningEngine implements OptimizationEngine {
      */
     private int currentStateId;
 
-    /**
-     * The index of the current action.
-     */
-    private int currentActionId = 0;
-
     /**
      * The number of times the algorithm will try to reach the terminal state after resetting.
      */
-    private int episodeThreshold;
+    private volatile int episodeThreshold;
 
     /**
      * The number of times the algorithm will try to reach the terminal state before resetting.
@@ -68,7 +123,7 @@ public class QLearningEngine implements OptimizationEngine {
     /**
      * The current episode.
      */
-    private int currentEpisode = 0;
+    private volatile int currentEpisode = 0;
 
     /**
      * The current step.
@@ -78,7 +133,63 @@ public class QLearningEngine implements OptimizationEngine {
     /**
      * If the algorithm should stop iterating.
      */
-    private boolean isForceQuitting = false;
+    private volatile boolean isForceQuitting = false;
+
+    /**
+     * The number of episodes that run at the same time. 1 runs episodes strictly one after another.
+     */
+    private int episodesInFlight = 1;
+
+    /**
+     * The episodes in flight. Created by the first selectNextState when more than one runs at a time.
+     */
+    private Episode[] episodes;
+
+    /**
+     * The number of episodes started so far when several run at a time.
+     */
+    private int startedEpisodes = 0;
+
+    /**
+     * Where the search for the next ready episode starts, so episodes take turns.
+     */
+    private int nextEpisode = 0;
+
+    /**
+     * Steps handed out to episodes in flight that are waiting for their result.
+     */
+    private final List<Excursion> outstanding = new ArrayList<>();
+
+    /**
+     * Guards every read and update of the engine, so that excursions can be run from several threads.
+     */
+    private final Object lock = new Object();
+
+    /**
+     * The run ends early once no Q-Value changed by more than this for `convergenceWindow` episodes in a row.
+     * 0 disables convergence detection.
+     */
+    private volatile double convergenceTolerance = 0;
+
+    /**
+     * The number of consecutive stable episodes needed to converge.
+     */
+    private volatile int convergenceWindow = 10;
+
+    /**
+     * The number of consecutive episodes in which no Q-Value changed by more than the tolerance.
+     */
+    private volatile int stableEpisodes = 0;
+
+    /**
+     * The largest change of any Q-Value in each finished episode.
+     */
+    private double[] convergenceCurve = new double[64];
+
+    /**
+     * The number of entries in the convergence curve.
+     */
+    private int convergenceCurveLength = 0;
 
     /**
      * The location of where data is saved.
@@ -100,6 +211,113 @@ public class QLearningEngine implements OptimizationEngine {
      */
     private StateSpaceManager manager;
 
+    /**
+     * Computes state and action IDs from the manager's enums. Read without the lock by threads delivering results.
+     */
+    private volatile StateActionCodec codec;
+
+    /**
+     * Results waiting for the learner thread. Null when results are learned on the thread that delivers them.
+     * Written under the lock, read without it by threads delivering results.
+     */
+    private volatile ArrayBlockingQueue<Result> learnerQueue;
+
+    /**
+     * Applies queued results, see {@link QLearningEngine#setAsynchronousLearning(int)}. Started by the first queued
+     * result, and stopped once idle by finishOptimization. Written under the lock.
+     */
+    private volatile Thread learner;
+
+    /**
+     * The number of results queued for the learner thread, and the number it applied. Applied is guarded by the lock.
+     */
+    private final AtomicLong submittedResults = new AtomicLong();
+    private long appliedResults = 0;
+
+    /**
+     * A policy snapshot is published after this many Q-Table updates, so getResults can be read while iterating.
+     * 0 disables snapshots.
+     */
+    private volatile int snapshotInterval = 0;
+
+    /**
+     * How often the Q-Table is checkpointed, in milliseconds. 0 disables checkpoints.
+     */
+    private long checkpointInterval = 0;
+
+    /**
+     * Writes the rows changed since the last checkpoint, see {@link QLearningEngine#setCheckpointInterval(long)}.
+     */
+    private QTableCheckpoint checkpoint;
+
+    /**
+     * Runs the checkpoints in the background.
+     */
+    private ScheduledExecutorService checkpointer;
+
+    /**
+     * Whether qtable.csv and history.csv are written gzip-compressed.
+     */
+    private boolean compressedOutput = false;
+
+    /**
+     * The most results the learner thread applies under one acquisition of the lock.
+     */
+    private static final int LEARNER_BATCH_SIZE = 256;
+
+    /**
+     * The source of every random choice: exploration, starting states, planning and replay.
+     * The model and the replay buffer draw from generators split off this one.
+     * Seed it with {@link QLearningEngine#setSeed(long)} to make runs reproducible.
+     */
+    private SplittableRandom random = new SplittableRandom();
+
+    /**
+     * The number of simulated updates drawn from the transition model after each real excursion.
+     * 0 disables planning.
+     */
+    private int planningSteps = 0;
+
+    /**
+     * The observed transitions, replayed when planning.
+     */
+    private TransitionModel model;
+
+    /**
+     * If planning should follow the largest TD errors instead of sampling uniformly.
+     */
+    private boolean prioritizedSweeping = false;
+
+    /**
+     * Pairs whose TD error is at or below this are not queued when sweeping.
+     */
+    private double priorityThreshold = 1e-4;
+
+    /**
+     * Recent transitions for experience replay. Null when replay is disabled.
+     */
+    private ReplayBuffer replay;
+
+    /**
+     * The number of transitions replayed after each real excursion.
+     */
+    private int replayBatchSize = 32;
+
+    /**
+     * If replay should draw transitions in proportion to their last TD error instead of uniformly.
+     */
+    private boolean prioritizedReplay = false;
+
+    /**
+     * The TD errors of the last replayed minibatch.
+     */
+    private double[] replayErrors = new double[0];
+
+    /**
+     * The prioritized-sweeping queue, keyed by stateIndex * numberOfActions + actionIndex and ordered by |TD error|.
+     */
+    private IndexedMaxHeap queue;
+
     /**
      * Change the reference to the current StateSpaceManager.
      * @param saveLocation File of StateSpaceManager.
@@ -108,6 +326,7 @@ public class QLearningEngine implements OptimizationEngine {
         LOGGER.fine("Setting manager");
         saveFolder = saveLocation;
         manager = StateSpaceManager.getManager(saveLocation);
+        codec = null;
     }
 
     /**
@@ -129,14 +348,256 @@ public class QLearningEngine implements OptimizationEngine {
         return table;
     }
 
+    /**
+     * Create the Q-Table and history on first use, once the manager knows its enums.
+     */
+    private void createTables()
+    {
+        boolean createdTable = qTable == null;
+        if (createdTable) {
+            qTable = new QTable(saveFolder);
+            qTable.setSnapshotInterval(snapshotInterval);
+            qTable.setCompressedOutput(compressedOutput);
+        }
+        if (checkpointInterval > 0 && checkpoint == null) {
+            startCheckpointing(createdTable);
+        }
+        if (history == null) {
+            history = new HistoryTable(saveFolder);
+            history.setCompressedOutput(compressedOutput);
+        }
+        if (codec == null) {
+            codec = new StateActionCodec(manager);
+        }
+    }
+
+    /**
+     * Start writing checkpoints in the background. Must hold the lock.
+     * @param restore whether to load the checkpoint in the save folder into the Q-Table first.
+     */
+    private void startCheckpointing(boolean restore)
+    {
+        checkpoint = new QTableCheckpoint(saveFolder, qTable);
+        if (restore && checkpoint.restore())
+        {
+            LOGGER.info("Resumed the Q-Table from the checkpoint in " + saveFolder);
+        }
+        checkpointer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "TAIL_CHECKPOINT");
+            thread.setDaemon(true);
+            return thread;
+        });
+        checkpointer.scheduleWithFixedDelay(this::writeCheckpoint, checkpointInterval, checkpointInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Copy the changed rows under the lock, then write them without holding it, so training only pauses for the copy.
+     */
+    private void writeCheckpoint()
+    {
+        QTableCheckpoint current;
+        QTableCheckpoint.Capture capture;
+        synchronized (lock)
+        {
+            current = checkpoint;
+            if (current == null)
+            {
+                return;
+            }
+            capture = current.capture();
+        }
+        try {
+            current.write(capture);
+        } catch (IOException err)
+        {
+            LOGGER.severe("Unable to write checkpoint", err);
+        }
+    }
+
+    /**
+     * Wait for a running checkpoint, write a last one and stop. Must not hold the lock, since checkpoints take it.
+     */
+    private void stopCheckpointing()
+    {
+        ScheduledExecutorService service;
+        synchronized (lock)
+        {
+            service = checkpointer;
+            checkpointer = null;
+        }
+        if (service == null)
+        {
+            return;
+        }
+        service.shutdown();
+        try {
+            service.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException err)
+        {
+            Thread.currentThread().interrupt();
+        }
+        writeCheckpoint();
+        synchronized (lock)
+        {
+            try {
+                checkpoint.close();
+            } catch (IOException err)
+            {
+                LOGGER.warning("Unable to close checkpoint", err);
+            }
+            checkpoint = null;
+        }
+    }
+
+    /**
+     * Replay transitions from the model. Dyna-Q: each simulated transition gets the regular Q-Learning update.
+     * Updates are applied one after another, since a small model draws the same pair many times.
+     */
+    private void plan()
+    {
+        int samples = model.sample(planningSteps);
+        int[] states = model.getSampledStates();
+        int[] actions = model.getSampledActions();
+        double[] rewards = model.getSampledRewards();
+        int[] nextStates = model.getSampledNextStates();
+        for (int i = 0; i < samples; i++)
+        {
+            double q = qTable.get(states[i], actions[i]);
+            double v = q + alpha * (rewards[i] + gamma * qTable.getBestValue(nextStates[i]) - q);
+            qTable.put(states[i], actions[i], v);
+        }
+    }
+
+    /**
+     * Replay a minibatch of past transitions as one batched Q-Learning update.
+     * With prioritized replay, the TD errors against the table before the update become the new priorities.
+     */
+    private void replay()
+    {
+        int samples = replay.sample(replayBatchSize, prioritizedReplay);
+        int[] states = replay.getSampledStates();
+        int[] actions = replay.getSampledActions();
+        double[] rewards = replay.getSampledRewards();
+        int[] nextStates = replay.getSampledNextStates();
+        if (prioritizedReplay)
+        {
+            if (replayErrors.length < samples)
+            {
+                replayErrors = new double[samples];
+            }
+            for (int i = 0; i < samples; i++)
+            {
+                replayErrors[i] = rewards[i] + gamma * qTable.getBestValue(nextStates[i]) - qTable.get(states[i], actions[i]);
+            }
+            replay.updatePriorities(replayErrors, samples);
+        }
+        qTable.update(states, actions, rewards, nextStates, samples, alpha, gamma);
+    }
+
+    /**
+     * Queue a pair for sweeping if its TD error under the model is above the threshold.
+     * @param stateIndex the state.
+     * @param actionIndex the action.
+     */
+    private void enqueue(int stateIndex, int actionIndex)
+    {
+        double target = model.expectedTarget(stateIndex, actionIndex, qTable, gamma);
+        double priority = Math.abs(target - qTable.get(stateIndex, actionIndex));
+        if (priority > priorityThreshold)
+        {
+            queue.raise(stateIndex * qTable.getNumberOfActions() + actionIndex, priority);
+        }
+    }
+
+    /**
+     * Prioritized sweeping: update the pairs with the largest TD error first, then queue the pairs that lead into
+     * each updated state, since their targets just changed.
+     */
+    private void sweep()
+    {
+        int numberOfActions = qTable.getNumberOfActions();
+        for (int i = 0; i < planningSteps && !queue.isEmpty(); i++)
+        {
+            int key = queue.poll();
+            int stateIndex = key / numberOfActions;
+            int actionIndex = key % numberOfActions;
+            double q = qTable.get(stateIndex, actionIndex);
+            qTable.put(stateIndex, actionIndex, q + alpha * (model.expectedTarget(stateIndex, actionIndex, qTable, gamma) - q));
+            model.forEachPredecessor(stateIndex, this::enqueue);
+        }
+    }
+
+    /**
+     * Pick the state an episode starts in. When sweeping, this is the state with the largest TD error, so
+     * excursions go where the values are still moving. The pair is taken off the queue, since the excursion updates
+     * it for real, and the next episode starts elsewhere even when no planning steps drain the queue.
+     * @return The index of the state.
+     */
+    private int getEpisodeStartState()
+    {
+        if (queue != null && !queue.isEmpty())
+        {
+            return queue.poll() / manager.getNumberOfActions();
+        }
+        return getRandomState();
+    }
+
+    /**
+     * Watkins Q(lambda): credit the TD error of a transition to every pair with an active trace. Traces are cut when the
+     * action taken was exploratory, since the greedy policy would not have followed that path.
+     * @param oldStateId the state the transition started in.
+     * @param actionId the action taken.
+     * @param newStateId the state the transition ended in.
+     * @param score the reward.
+     * @param traces the traces of the episode the transition belongs to.
+     */
+    private void updateWithTraces(int oldStateId, int actionId, int newStateId, double score, EligibilityTraces traces)
+    {
+        int numberOfActions = qTable.getNumberOfActions();
+        if (qTable.getBestAction(oldStateId) != actionId)
+        {
+            traces.clear();
+        }
+        traces.set(oldStateId * numberOfActions + actionId, 1);
+
+        double delta = score + gamma * qTable.getBestValue(newStateId) - qTable.get(oldStateId, actionId);
+        for (int i = 0; i < traces.size(); i++)
+        {
+            int key = traces.keyAt(i);
+            int stateIndex = key / numberOfActions;
+            int actionIndex = key % numberOfActions;
+            qTable.put(stateIndex, actionIndex, qTable.get(stateIndex, actionIndex) + alpha * delta * traces.valueAt(i));
+        }
+        traces.decay(gamma * lambda, traceCutoff);
+    }
+
+    /**
+     * @param episode the episode in flight, or null for the single episode.
+     * @return the eligibility traces of the episode, created on first use.
+     */
+    private EligibilityTraces getTraces(Episode episode)
+    {
+        if (episode == null)
+        {
+            if (traces == null) {
+                traces = new EligibilityTraces();
+            }
+            return traces;
+        }
+        if (episode.traces == null) {
+            episode.traces = new EligibilityTraces();
+        }
+        return episode.traces;
+    }
+
     /**
      * Pick the max action from current state.
      * @return index for action
      */
-    private int getBestAction(Map<Integer, Double> actions)
+    private int getBestAction(int stateIndex)
     {
         LOGGER.fine("Chose to exploit");
-        return Collections.max(actions.entrySet(), Comparator.comparingDouble(Map.Entry::getValue)).getKey();
+        return qTable.getBestAction(stateIndex);
     }
 
     /**
@@ -146,23 +607,36 @@ public class QLearningEngine implements OptimizationEngine {
     private int getRandomAction()
     {
         LOGGER.fine("Chose to explore");
-        Random rand = new Random();
-        return rand.nextInt(manager.getNumberOfActions());
+        return random.nextInt(manager.getNumberOfActions());
+    }
+
+    /**
+     * Pick the action for a state with the exploration strategy, or epsilon-greedy when none is set.
+     * @param stateIndex the index of the state.
+     * @return The index of the action.
+     */
+    private int chooseAction(int stateIndex)
+    {
+        if (exploration == null)
+        {
+            return getActionFromEpsilonGreedy(stateIndex);
+        }
+        return exploration.chooseAction(qTable, stateIndex, random);
     }
 
     /**
      * Choose to explore at a rate `epsilon` or choose the best action.
+     * @param stateIndex the index of the state.
      * @return The index of the action.
      */
-    private int getActionFromEpsilonGreedy()
+    private int getActionFromEpsilonGreedy(int stateIndex)
     {
         LOGGER.fine("Getting action from epsilon-greedy policy");
-        Random rand = new Random();
-        if (rand.nextDouble() < epsilon)
+        if (random.nextDouble() < epsilon)
         {
             return getRandomAction();
         } else {
-            return getBestAction(qTable.getActions(currentStateId));
+            return getBestAction(stateIndex);
         }
     }
 
@@ -173,8 +647,7 @@ public class QLearningEngine implements OptimizationEngine {
     private int getRandomState()
     {
         LOGGER.fine("Getting random state");
-        Random rand = new Random();
-        return rand.nextInt(manager.getNumberOfStates());
+        return random.nextInt(manager.getNumberOfStates());
     }
 
     /**
@@ -186,7 +659,149 @@ public class QLearningEngine implements OptimizationEngine {
         if (++currentStep == stepThreshold) {
             currentStep = 0;
             currentEpisode++;
-            currentStateId = getRandomState();
+            recordConvergence();
+            if (traces != null) {
+                traces.clear();
+            }
+            if (exploration != null) {
+                exploration.endEpisode();
+            }
+            currentStateId = getEpisodeStartState();
+        }
+    }
+
+    /**
+     * Hand out the next step of whichever episode in flight is ready, meaning it is not waiting for a result. When
+     * every episode is waiting, the one waiting for the fewest results goes, so callers that run excursions in
+     * batches never block.
+     * @param step where the state and action are stored.
+     */
+    private void selectEpisodeStep(int[] step)
+    {
+        if (episodes == null)
+        {
+            episodes = new Episode[episodesInFlight];
+            for (int i = 0; i < episodes.length; i++)
+            {
+                episodes[i] = new Episode();
+                startEpisode(episodes[i]);
+            }
+        }
+        Episode episode = null;
+        for (int i = 0; i < episodes.length; i++)
+        {
+            Episode candidate = episodes[(nextEpisode + i) % episodes.length];
+            if (!candidate.retired && (episode == null || candidate.outstanding < episode.outstanding))
+            {
+                episode = candidate;
+                nextEpisode = (nextEpisode + i + 1) % episodes.length;
+                if (candidate.outstanding == 0)
+                {
+                    break;
+                }
+            }
+        }
+        if (episode == null)
+        {
+            // Every episode is done. Hand out a step anyway, like a single episode would.
+            step[STATE_INDEX] = getRandomState();
+            step[ACTION_INDEX] = chooseAction(step[STATE_INDEX]);
+            return;
+        }
+        step[STATE_INDEX] = episode.stateId;
+        step[ACTION_INDEX] = chooseAction(episode.stateId);
+        episode.outstanding++;
+        outstanding.add(new Excursion(episode, step[STATE_INDEX], step[ACTION_INDEX]));
+        if (++episode.step == stepThreshold)
+        {
+            currentEpisode++;
+            recordConvergence();
+            if (episode.traces != null) {
+                episode.traces.clear();
+            }
+            if (exploration != null) {
+                exploration.endEpisode();
+            }
+            startEpisode(episode);
+        }
+    }
+
+    /**
+     * Start the next episode in a slot, or retire the slot once every episode has started.
+     * @param episode the slot.
+     */
+    private void startEpisode(Episode episode)
+    {
+        if (startedEpisodes == episodeThreshold)
+        {
+            episode.retired = true;
+            return;
+        }
+        startedEpisodes++;
+        episode.step = 0;
+        episode.stateId = getEpisodeStartState();
+    }
+
+    /**
+     * Find and remove the first outstanding step for a state/action pair.
+     * @return the step or null when no episode asked for it.
+     */
+    private Excursion removeOutstanding(int stateId, int actionId)
+    {
+        for (Iterator<Excursion> it = outstanding.iterator(); it.hasNext(); )
+        {
+            Excursion excursion = it.next();
+            if (excursion.stateId == stateId && excursion.actionId == actionId)
+            {
+                it.remove();
+                excursion.episode.outstanding--;
+                return excursion;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Add the largest change of the episode that just finished to the convergence curve, and count stable episodes.
+     * Results still queued for the learner thread are applied first, otherwise their changes would be missed and
+     * the run could stop early. Must hold the lock.
+     */
+    private void recordConvergence()
+    {
+        flush();
+        double change = qTable.resetMaxChange();
+        if (convergenceCurveLength == convergenceCurve.length)
+        {
+            convergenceCurve = Arrays.copyOf(convergenceCurve, convergenceCurveLength * 2);
+        }
+        convergenceCurve[convergenceCurveLength++] = change;
+        stableEpisodes = change <= convergenceTolerance ? stableEpisodes + 1 : 0;
+    }
+
+    /**
+     * If the Q-Values have been stable for long enough to stop.
+     * @return A boolean.
+     */
+    private boolean hasConverged()
+    {
+        return convergenceTolerance > 0 && stableEpisodes >= convergenceWindow;
+    }
+
+    /**
+     * Write the convergence curve to convergence.csv.
+     */
+    private void writeConvergenceCurve()
+    {
+        try (ChunkedCsvWriter writer = new ChunkedCsvWriter(new File(saveFolder, "convergence.csv")))
+        {
+            String lineSeparator = System.lineSeparator();
+            writer.write("Episode,Max Change" + lineSeparator);
+            double[] curve = getConvergenceCurve();
+            writer.writeRows(curve.length, (episode, out) ->
+                    ChunkedCsvWriter.appendFixed(out.append(episode + 1).append(','), curve[episode]).append(lineSeparator));
+        } catch (IOException err)
+        {
+            Exceptions.LOGGER.severe("Unable to write convergence curve", err);
         }
     }
 
@@ -203,12 +818,13 @@ public class QLearningEngine implements OptimizationEngine {
     }
 
     /**
-     * If the algorithm is still iterating and should continue iterating.
+     * If the algorithm is still iterating and should continue iterating. The fields it reads are written under the
+     * lock and volatile, so getResults can check it without the lock.
      * @return A boolean.
      */
     private boolean isIterating ()
     {
-        return currentEpisode != episodeThreshold && !isForceQuitting;
+        return currentEpisode != episodeThreshold && !isForceQuitting && !hasConverged();
     }
 
     /**
@@ -287,51 +903,253 @@ public class QLearningEngine implements OptimizationEngine {
     }
 
     /**
-     * Iterable for engine. Modifies the current state and action.
-     * @return The next state-action pair.
+     * Iterable for engine. Modifies the current state and action.
+     * @return The next state-action pair.
+     */
+    @Override
+    public int[] selectNextState() {
+        synchronized (lock)
+        {
+            createTables();
+            int[] step = new int[2];
+            if (episodesInFlight > 1)
+            {
+                selectEpisodeStep(step);
+                return step;
+            }
+            setCurrentIteration();
+            step[STATE_INDEX] = currentStateId;
+            step[ACTION_INDEX] = chooseAction(currentStateId);
+
+            return step;
+        }
+    }
+
+    /**
+     * Use Bellman equation to update qTable.
+     * @param oldState beginning state of the excursion
+     * @param action action taken
+     * @param newState end state of the excursion
+     * @param probability - the probability that the new state was encountered
+     * @param score score of the result
+     */
+    @Override
+    public void processResults(State oldState, List<ActionEnumeration> action, State newState, double probability, double score) {
+        LOGGER.fine("Updating Q-Table value");
+        StateActionCodec codec = getCodec();
+        int oldStateId = codec.encodeState(oldState);
+        int newStateId = codec.encodeState(newState);
+        int actionId   = codec.encodeActions(action);
+        Result result = new Result(oldState, action, newState, probability, score, oldStateId, actionId, newStateId);
+
+        ArrayBlockingQueue<Result> queue = learnerQueue;
+        if (queue != null)
+        {
+            submit(queue, result);
+            return;
+        }
+        synchronized (lock)
+        {
+            learn(result);
+        }
+    }
+
+    /**
+     * Apply a result to the Q-Table, the history, the replay buffer and the model. Must hold the lock.
+     * @param result the result, with its IDs.
+     */
+    private void learn(Result result)
+    {
+        createTables();
+        int oldStateId = result.oldStateId;
+        int newStateId = result.newStateId;
+        int actionId   = result.actionId;
+        double score   = result.score;
+        Excursion excursion = removeOutstanding(oldStateId, actionId);
+        Episode episode = excursion == null ? null : excursion.episode;
+
+        // The pair that was taken is the one updated, like the model, sweeping and replay updates.
+        if (lambda > 0)
+        {
+            updateWithTraces(oldStateId, actionId, newStateId, score, getTraces(episode));
+        } else {
+            double q1 = qTable.get(oldStateId, actionId);
+            double q2 = qTable.getBestValue(newStateId);
+            double v  = q1 + alpha * (score + gamma * q2 - q1);
+
+            qTable.put(oldStateId, actionId, v);
+        }
+
+        // The episode moves on to the state the transition ended in, unless it already moved on or started over.
+        if (episode == null) {
+            if (currentStateId == oldStateId) {
+                currentStateId = newStateId;
+            }
+        } else if (episode.stateId == oldStateId) {
+            episode.stateId = newStateId;
+        }
+
+        history.add(result);
+
+        if (replay != null)
+        {
+            replay.add(oldStateId, actionId, newStateId, score, result.probability);
+            replay();
+        }
+
+        if (planningSteps > 0 || prioritizedSweeping)
+        {
+            if (model == null) {
+                model = new TransitionModel(manager.getNumberOfActions());
+                model.setRandom(random.split());
+            }
+            model.add(oldStateId, actionId, newStateId, score);
+            if (prioritizedSweeping)
+            {
+                if (queue == null) {
+                    queue = new IndexedMaxHeap(qTable.getNumberOfStates() * qTable.getNumberOfActions());
+                }
+                enqueue(oldStateId, actionId);
+                sweep();
+            } else {
+                plan();
+            }
+        }
+    }
+
+    /**
+     * @return the codec, created under the lock on first use.
+     */
+    private StateActionCodec getCodec()
+    {
+        StateActionCodec current = codec;
+        if (current == null)
+        {
+            synchronized (lock)
+            {
+                createTables();
+                current = codec;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Queue a result for the learner thread, starting it if needed. Only waits when the queue is full.
+     * The result is counted before the learner is checked, so a learner that is stopping sees it and keeps running.
+     * @param queue the learner queue.
+     * @param result the result.
+     */
+    private void submit(ArrayBlockingQueue<Result> queue, Result result)
+    {
+        submittedResults.incrementAndGet();
+        if (learner == null)
+        {
+            synchronized (lock)
+            {
+                if (learner == null)
+                {
+                    learner = new Thread(() -> runLearner(queue));
+                    learner.setName("TAIL_Q_LEARNER");
+                    learner.setDaemon(true);
+                    learner.start();
+                }
+            }
+        }
+        try {
+            queue.put(result);
+        } catch (InterruptedException err)
+        {
+            Thread.currentThread().interrupt();
+            LOGGER.warning("Interrupted while queueing a result, the result was dropped");
+            synchronized (lock)
+            {
+                appliedResults++;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * The learner thread: wait for results, then apply everything queued so far, up to a batch, under one
+     * acquisition of the lock. Planning and replay run here as well, off the threads delivering results.
+     * An interrupt stops the thread once every counted result was applied, or right away when it was replaced.
+     * @param queue the learner queue.
      */
-    @Override
-    public int[] selectNextState() {
-        if (qTable == null) {
-            qTable = new QTable(saveFolder);
+    private void runLearner(ArrayBlockingQueue<Result> queue)
+    {
+        List<Result> batch = new ArrayList<>(LEARNER_BATCH_SIZE);
+        while (true)
+        {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException err)
+            {
+                synchronized (lock)
+                {
+                    if (learner != Thread.currentThread())
+                    {
+                        return;
+                    }
+                    if (appliedResults == submittedResults.get())
+                    {
+                        learner = null;
+                        return;
+                    }
+                }
+                continue;
+            }
+            queue.drainTo(batch, LEARNER_BATCH_SIZE - 1);
+            synchronized (lock)
+            {
+                for (Result result : batch)
+                {
+                    try {
+                        learn(result);
+                    } catch (RuntimeException err)
+                    {
+                        LOGGER.severe("Unable to learn from result " + result, err);
+                    }
+                }
+                appliedResults += batch.size();
+                lock.notifyAll();
+            }
+            batch.clear();
         }
-        setCurrentIteration();
-        int[] step = new int[2];
-        step[STATE_INDEX] = currentStateId;
-        step[ACTION_INDEX] = getActionFromEpsilonGreedy();
-
-        return step;
     }
 
     /**
-     * Use Bellman equation to update qTable.
-     * @param oldState beginning state of the excursion
-     * @param action action taken
-     * @param newState end state of the excursion
-     * @param probability - the probability that the new state was encountered
-     * @param score score of the result
+     * Wait until every queued result was applied, then let the learner thread stop. The next queued result starts a
+     * new one. Must hold the lock.
      */
-    @Override
-    public void processResults(State oldState, List<ActionEnumeration> action, State newState, double probability, double score) {
-        Result result = new Result(oldState, action, newState, probability, score);
-        LOGGER.fine("Updating Q-Table value");
-        int oldStateId = manager.getIDForState(oldState);
-        int newStateId = manager.getIDForState(newState);
-        int actionId   = manager.getIDForActions(action);
-
-        if (qTable == null) {
-            qTable = new QTable(saveFolder);
+    private void stopLearner()
+    {
+        flush();
+        if (learner != null)
+        {
+            learner.interrupt();
         }
+    }
 
-        double q1 = qTable.getActions(oldStateId).get(currentActionId);
-        double q2 = qTable.getActions(newStateId).get(actionId);
-        double v  = q1 + alpha * (score + gamma * q2 - q1);
-
-        qTable.put(oldStateId, currentActionId, v);
-
-        currentActionId = actionId;
-
-        history.add(result);
+    /**
+     * Wait until the learner thread has applied every queued result. Must hold the lock.
+     */
+    private void flush()
+    {
+        boolean interrupted = false;
+        while (appliedResults < submittedResults.get())
+        {
+            try {
+                lock.wait();
+            } catch (InterruptedException err)
+            {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+        {
+            Thread.currentThread().interrupt();
+        }
     }
 
     /**
@@ -340,7 +1158,10 @@ public class QLearningEngine implements OptimizationEngine {
      */
     @Override
     public boolean continueIterating() {
-        return isIterating();
+        synchronized (lock)
+        {
+            return isIterating();
+        }
     }
 
     /**
@@ -348,9 +1169,18 @@ public class QLearningEngine implements OptimizationEngine {
      */
     @Override
     public void finishOptimization() {
-        isForceQuitting = true;
-        qTable.writeToFile();
-        history.writeToFile();
+        synchronized (lock)
+        {
+            isForceQuitting = true;
+            stopLearner();
+        }
+        stopCheckpointing();
+        synchronized (lock)
+        {
+            qTable.writeToFile();
+            history.writeToFile();
+            writeConvergenceCurve();
+        }
     }
 
     /**
@@ -358,33 +1188,62 @@ public class QLearningEngine implements OptimizationEngine {
      */
     @Override
     public void reset() {
-        isForceQuitting = false;
-        currentEpisode = 0;
-        currentStep = 0;
-        //qTable = createQTable(manager.getNumberOfStates(), manager.getNumberOfActions());
-        currentStateId = getRandomState();
+        synchronized (lock)
+        {
+            flush();
+            isForceQuitting = false;
+            currentEpisode = 0;
+            currentStep = 0;
+            stableEpisodes = 0;
+            convergenceCurveLength = 0;
+            episodes = null;
+            startedEpisodes = 0;
+            outstanding.clear();
+            if (exploration != null) {
+                exploration.reset();
+            }
+            //qTable = createQTable(manager.getNumberOfStates(), manager.getNumberOfActions());
+            currentStateId = getRandomState();
+        }
     }
 
     /**
-     * Whether or not the engine can run in parallel.
+     * Whether or not the engine can run in parallel. Excursions of a single episode must run in order, several
+     * episodes in flight can run in any order.
      * @return boolean.
+     * @see QLearningEngine#setEpisodesInFlight(int)
      */
     @Override
     public boolean requiresFixedExcursionOrdering() {
-        return true;
+        return episodesInFlight == 1;
     }
 
     /**
      * Get expected values of all state-action pairs.
+     * While iterating, returns the latest policy snapshot when snapshots are enabled, see
+     * {@link QLearningEngine#setSnapshotInterval(int)}.
      * @return qTable
      */
     @Override
     public Map<Integer, Map<Integer, Double>> getResults() {
-        if (isIterating())
+        QTable table = qTable;
+        if (snapshotInterval > 0 && table != null)
         {
-            throw new Exceptions.PrematureInvocationException();
+            Policy snapshot = table.getSnapshot();
+            if (snapshot != null && isIterating())
+            {
+                return snapshot;
+            }
+        }
+        synchronized (lock)
+        {
+            if (isIterating())
+            {
+                throw new Exceptions.PrematureInvocationException();
+            }
+            flush();
+            return qTable.getOptimalPolicy();
         }
-        return qTable.getOptimalPolicy();
     }
 
     /**
@@ -470,6 +1329,242 @@ public class QLearningEngine implements OptimizationEngine {
         return getEpsilon();
     }
 
+    /**
+     * Replace epsilon-greedy with another way of choosing actions, such as a decaying rate, Boltzmann or UCB1.
+     * @param strategy - (nullable) the strategy. Null goes back to epsilon-greedy with the fixed exploration rate.
+     * @see ExplorationStrategy
+     */
+    public void setExplorationStrategy(ExplorationStrategy strategy)
+    {
+        exploration = strategy;
+    }
+
+    /**
+     * @return the exploration strategy, or null when epsilon-greedy with the fixed exploration rate is used.
+     */
+    public ExplorationStrategy getExplorationStrategy()
+    {
+        return exploration;
+    }
+
+    /**
+     * Enable Watkins Q(lambda). Each real excursion updates every pair still eligible in the episode, so rewards propagate
+     * back along the path in fewer excursions. The path is the one the episode follows as results move it from state to
+     * state, so with the learner thread or several episodes in flight, a step handed out before the previous result
+     * was applied starts from the state the episode was in at the time.
+     * @param rate a value between 0 and 1. 0 uses one-step updates.
+     * @see QLearningEngine#lambda
+     */
+    public void setLambda(double rate)
+    {
+        if (rate == 0 || isRate(rate, "Trace decay rate")) {
+            lambda = rate;
+        }
+    }
+
+    /**
+     * @return the rate at which eligibility traces decay.
+     */
+    public double getLambda()
+    {
+        return lambda;
+    }
+
+    /**
+     * Set the value below which eligibility traces are dropped.
+     * @param cutoff a value between 0 and 1.
+     * @see QLearningEngine#traceCutoff
+     */
+    public void setTraceCutoff(double cutoff)
+    {
+        if (isRate(cutoff, "Trace cutoff")) {
+            traceCutoff = cutoff;
+        }
+    }
+
+    /**
+     * @return the value below which eligibility traces are dropped.
+     */
+    public double getTraceCutoff()
+    {
+        return traceCutoff;
+    }
+
+    /**
+     * Enable experience replay. The last `capacity` transitions are kept, and after each real excursion a minibatch
+     * of `batchSize` of them is replayed as one batched update.
+     * @param capacity the number of transitions kept. 0 disables replay.
+     * @param batchSize the number of transitions replayed per real excursion.
+     */
+    public void setReplay(int capacity, int batchSize)
+    {
+        if (capacity == 0)
+        {
+            replay = null;
+            return;
+        }
+        if (isUnsigned(capacity, "Replay capacity") && isUnsigned(batchSize, "Replay batch size"))
+        {
+            replay = new ReplayBuffer(capacity);
+            replay.setRandom(random.split());
+            replayBatchSize = batchSize;
+        }
+    }
+
+    /**
+     * @return the number of transitions kept for replay. 0 when replay is disabled.
+     */
+    public int getReplayCapacity()
+    {
+        return replay == null ? 0 : replay.getCapacity();
+    }
+
+    /**
+     * @return the number of transitions replayed per real excursion.
+     */
+    public int getReplayBatchSize()
+    {
+        return replayBatchSize;
+    }
+
+    /**
+     * Draw replayed transitions in proportion to their last TD error instead of uniformly.
+     * @param enabled whether replay is prioritized.
+     */
+    public void setPrioritizedReplay(boolean enabled)
+    {
+        prioritizedReplay = enabled;
+    }
+
+    /**
+     * @return whether replay is prioritized.
+     */
+    public boolean isPrioritizedReplay()
+    {
+        return prioritizedReplay;
+    }
+
+    /**
+     * Enable Dyna-Q planning. Every real transition is recorded in a model, and after each one the engine replays
+     * `steps` transitions sampled from the model, so fewer excursions are needed to reach a stable policy.
+     * @param steps the number of simulated updates per real excursion. 0 disables planning.
+     * @see QLearningEngine#planningSteps
+     */
+    public void setPlanningSteps(int steps)
+    {
+        if (steps < 0)
+        {
+            LOGGER.severe("Planning steps must be greater than or equal to 0");
+            return;
+        }
+        planningSteps = steps;
+    }
+
+    /**
+     * @return the number of simulated updates per real excursion.
+     */
+    public int getPlanningSteps()
+    {
+        return planningSteps;
+    }
+
+    /**
+     * Enable prioritized sweeping. Planning updates take the pairs with the largest TD error from a queue instead of
+     * sampling uniformly, pairs leading into updated states are queued in turn, and episodes start in the state at
+     * the head of the queue. The number of updates per real excursion is set by setPlanningSteps.
+     * @param enabled whether to sweep.
+     * @see QLearningEngine#setPlanningSteps(int)
+     * @see QLearningEngine#setPriorityThreshold(double)
+     */
+    public void setPrioritizedSweeping(boolean enabled)
+    {
+        prioritizedSweeping = enabled;
+    }
+
+    /**
+     * @return whether prioritized sweeping is enabled.
+     */
+    public boolean isPrioritizedSweeping()
+    {
+        return prioritizedSweeping;
+    }
+
+    /**
+     * Set the smallest TD error that is queued when sweeping.
+     * @param threshold a value greater than or equal to 0.
+     * @see QLearningEngine#priorityThreshold
+     */
+    public void setPriorityThreshold(double threshold)
+    {
+        if (threshold < 0)
+        {
+            LOGGER.severe("Priority threshold must be greater than or equal to 0");
+            return;
+        }
+        priorityThreshold = threshold;
+    }
+
+    /**
+     * @return the smallest TD error that is queued when sweeping.
+     */
+    public double getPriorityThreshold()
+    {
+        return priorityThreshold;
+    }
+
+    /**
+     * End the run early once no Q-Value changed by more than `tolerance` for `window` episodes in a row.
+     * @param tolerance the largest change that counts as stable. 0 disables convergence detection.
+     * @param window the number of consecutive stable episodes needed.
+     * @see QLearningEngine#convergenceTolerance
+     */
+    public void setConvergenceTolerance(double tolerance, int window)
+    {
+        if (tolerance < 0)
+        {
+            LOGGER.severe("Convergence tolerance must be greater than or equal to 0");
+            return;
+        }
+        if (isUnsigned(window, "Convergence window"))
+        {
+            convergenceTolerance = tolerance;
+            convergenceWindow = window;
+        }
+    }
+
+    /**
+     * @return the largest change that counts as stable.
+     */
+    public double getConvergenceTolerance()
+    {
+        return convergenceTolerance;
+    }
+
+    /**
+     * @return the number of consecutive stable episodes needed to converge.
+     */
+    public int getConvergenceWindow()
+    {
+        return convergenceWindow;
+    }
+
+    /**
+     * @return whether the run ended because the Q-Values converged.
+     */
+    public boolean isConverged()
+    {
+        return hasConverged();
+    }
+
+    /**
+     * The convergence curve is also written to convergence.csv by finishOptimization.
+     * @return the largest change of any Q-Value in each finished episode.
+     */
+    public double[] getConvergenceCurve()
+    {
+        return Arrays.copyOf(convergenceCurve, convergenceCurveLength);
+    }
+
     /**
      * Sets the discount rate of the algorithm.
      * @param rate a value between 0 and 1.
@@ -531,6 +1626,181 @@ public class QLearningEngine implements OptimizationEngine {
         }
     }
 
+    /**
+     * Publish a snapshot of the policy every few Q-Table updates. While iterating, getResults returns the latest
+     * snapshot instead of throwing, without taking the engine lock, so a dashboard can poll it during a run without
+     * slowing training. Once iterating ends, getResults returns the full policy as before.
+     * @param updates the number of updates between snapshots. 0 disables snapshots.
+     * @see QTable#setSnapshotInterval(int)
+     */
+    public void setSnapshotInterval(int updates)
+    {
+        if (updates == 0 || isUnsigned(updates, "Snapshot interval"))
+        {
+            synchronized (lock)
+            {
+                snapshotInterval = updates;
+                if (qTable != null)
+                {
+                    qTable.setSnapshotInterval(updates);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of Q-Table updates between policy snapshots. 0 when snapshots are disabled.
+     */
+    public int getSnapshotInterval()
+    {
+        return snapshotInterval;
+    }
+
+    /**
+     * Write qtable.csv.gz and history.csv.gz instead of qtable.csv and history.csv. The rows are compressed in blocks,
+     * one gzip member per chunk, so the files read like any gzip file, and an index next to each file lets
+     * {@link ChunkedCsvReader} start at any row without decompressing the blocks before it.
+     * @param compressed whether to compress the output.
+     */
+    public void setCompressedOutput(boolean compressed)
+    {
+        synchronized (lock)
+        {
+            compressedOutput = compressed;
+            if (qTable != null)
+            {
+                qTable.setCompressedOutput(compressed);
+            }
+            if (history != null)
+            {
+                history.setCompressedOutput(compressed);
+            }
+        }
+    }
+
+    /**
+     * @return whether qtable.csv and history.csv are written gzip-compressed.
+     */
+    public boolean isCompressedOutput()
+    {
+        return compressedOutput;
+    }
+
+    /**
+     * Checkpoint the Q-Table in the background, so a long run that crashes can resume. Only the rows changed since
+     * the last checkpoint are written, appended to qtable.delta in the save folder; once that log outgrows the full
+     * table, the next checkpoint writes qtable.base instead and starts a new log, see {@link QTableCheckpoint}.
+     * finishOptimization writes a last checkpoint. Set before the first call to selectNextState or processResults to
+     * resume from the checkpoint already in the save folder.
+     * @param milliseconds the time between checkpoints. 0 disables checkpoints.
+     */
+    public void setCheckpointInterval(long milliseconds)
+    {
+        if (milliseconds == 0 || isUnsigned(milliseconds, "Checkpoint interval"))
+        {
+            stopCheckpointing();
+            synchronized (lock)
+            {
+                checkpointInterval = milliseconds;
+                if (milliseconds > 0 && qTable != null)
+                {
+                    startCheckpointing(false);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the time between checkpoints in milliseconds. 0 when checkpoints are disabled.
+     */
+    public long getCheckpointInterval()
+    {
+        return checkpointInterval;
+    }
+
+    /**
+     * Learn from results on a separate learner thread. processResults only computes the IDs of a result and queues
+     * it, so threads delivering results never wait for Q-Table updates, planning or replay. The learner applies
+     * queued results in batches under a single acquisition of the engine lock. finishOptimization and getResults
+     * wait until every queued result was applied.
+     * @param queueCapacity the number of results that can wait. processResults waits when the queue is full.
+     *                      0 learns on the thread that delivers the result.
+     */
+    public void setAsynchronousLearning(int queueCapacity)
+    {
+        synchronized (lock)
+        {
+            flush();
+            if (learner != null)
+            {
+                learner.interrupt();
+                learner = null;
+            }
+            if (queueCapacity == 0)
+            {
+                learnerQueue = null;
+            } else if (isUnsigned(queueCapacity, "Learner queue capacity"))
+            {
+                learnerQueue = new ArrayBlockingQueue<>(queueCapacity);
+            }
+        }
+    }
+
+    /**
+     * @return the number of results that can wait for the learner thread. 0 when learning is synchronous.
+     */
+    public int getAsynchronousLearningCapacity()
+    {
+        ArrayBlockingQueue<Result> queue = learnerQueue;
+        return queue == null ? 0 : queue.remainingCapacity() + queue.size();
+    }
+
+    /**
+     * Run several episodes at the same time, each with its own step counter and state. selectNextState hands out the
+     * next step of whichever episode is not waiting for a result, and processResults routes a result back to its
+     * episode by its state and action, so a parallel excursion runner stays busy. The total number of steps and
+     * episodes is unchanged. Must be set before the first call to selectNextState.
+     * @param number the number of episodes in flight. 1 runs episodes one after another.
+     */
+    public void setEpisodesInFlight(int number)
+    {
+        if (isUnsigned(number, "Number of episodes in flight"))
+        {
+            synchronized (lock)
+            {
+                episodesInFlight = number;
+                episodes = null;
+            }
+        }
+    }
+
+    /**
+     * @return the number of episodes that run at the same time.
+     */
+    public int getEpisodesInFlight()
+    {
+        return episodesInFlight;
+    }
+
+    /**
+     * Seed every random choice of the engine, so that runs with the same seed and the same results explore the same
+     * states and actions. The transition model and the replay buffer are reseeded as well.
+     * @param seed - the seed.
+     * @see QLearningEngine#random
+     */
+    public void setSeed(long seed)
+    {
+        random = new SplittableRandom(seed);
+        if (model != null)
+        {
+            model.setRandom(random.split());
+        }
+        if (replay != null)
+        {
+            replay.setRandom(random.split());
+        }
+    }
+
     /**
      * An error that occurs when results are accessed before the algorithm runs.
      */
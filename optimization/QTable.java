@@ -5,10 +5,10 @@ import state.StateEnumeration;
 import state.StateSpaceManager;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.util.*;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 public class QTable {
 
@@ -22,35 +22,139 @@ public class QTable {
      */
     private final File saveFolder;
 
+    /**
+     * The number of states (rows).
+     */
+    private final int numberOfStates;
+
+    /**
+     * The number of actions (columns).
+     */
+    private final int numberOfActions;
+
     /**
      * The Q-Table. Used to store state-action pairs.
+     * Row-major: the value of a state/action pair is at {@code stateIndex * numberOfActions + actionIndex}.
+     */
+    private final double[] qTable;
+
+    /**
+     * Runs the row scans and batched updates, see {@link QTableKernel}.
+     */
+    private QTableKernel kernel;
+
+    /**
+     * The largest absolute change made to any value since the last {@link QTable#resetMaxChange()}.
+     */
+    private double maxChange = 0;
+
+    /**
+     * The policy published by {@link QTable#publishSnapshot()}. Never modified once published, so readers on other
+     * threads need no lock.
+     */
+    private volatile Policy snapshot;
+
+    /**
+     * Snapshots are stored in pages of 2^SNAPSHOT_PAGE_SHIFT states.
+     */
+    private static final int SNAPSHOT_PAGE_SHIFT = 10;
+
+    /**
+     * The pages of the last snapshot. The next snapshot shares the pages whose rows did not change.
      */
-    private final Map<Integer, Map<Integer, Double>> qTable;
+    private int[][] snapshotActions;
+    private double[][] snapshotValues;
+
+    /**
+     * A snapshot is published after this many updates. 0 disables snapshots.
+     */
+    private int snapshotInterval = 0;
+
+    /**
+     * The number of updates since the last snapshot.
+     */
+    private int updatesSinceSnapshot = 0;
+
+    /**
+     * The states whose rows changed since the last snapshot.
+     */
+    private final BitSet dirtyRows = new BitSet();
+
+    /**
+     * The states whose rows changed since the last checkpoint, see {@link QTableCheckpoint}. Null when the table is
+     * not checkpointed.
+     */
+    private BitSet checkpointRows;
+
+    /**
+     * Whether qtable.csv is written gzip-compressed, as qtable.csv.gz, see {@link ChunkedCsvWriter}.
+     */
+    private boolean compressedOutput = false;
 
     public QTable(File saveFolder)
     {
         this.manager = StateSpaceManager.getManager(saveFolder);
         this.saveFolder = saveFolder;
-        this.qTable = this.createQTable(manager.getNumberOfStates(), manager.getNumberOfActions());
+        this.numberOfStates = manager.getNumberOfStates();
+        this.numberOfActions = manager.getNumberOfActions();
+        this.qTable = this.createQTable(numberOfStates, numberOfActions);
+        this.kernel = QTableKernel.getDefault(numberOfActions);
     }
 
     /**
      * Create a zeroed-out table with specific dimensions.
      * @param rows The number of rows.
      * @param columns The number of columns.
-     * @return A new HashMap.
+     * @return A new array.
      */
-    private Map<Integer, Map<Integer, Double>> createQTable(int rows, int columns) {
+    private double[] createQTable(int rows, int columns) {
         Exceptions.LOGGER.fine(String.format("Creating zeroed-out Q-Table %d x %d", rows, columns));
-        Map<Integer, Map<Integer, Double>> table = new HashMap<>();
-        for (int i=0; i < rows; i++) {
-            HashMap<Integer, Double> row = new HashMap<>();
-            for (int j=0; j < columns; j++) {
-                row.put(j, 0d);
-            }
-            table.put(i, row);
-        }
-        return table;
+        return new double[Math.multiplyExact(rows, columns)];
+    }
+
+    /**
+     * @return the number of states (rows).
+     */
+    public int getNumberOfStates()
+    {
+        return numberOfStates;
+    }
+
+    /**
+     * @return the number of actions (columns).
+     */
+    public int getNumberOfActions()
+    {
+        return numberOfActions;
+    }
+
+    /**
+     * Choose between the Vector API kernel and the scalar kernel.
+     * Falls back to the scalar kernel when the jdk.incubator.vector module is not available.
+     * @param vectorized - whether to use the Vector API.
+     */
+    public void setVectorized(boolean vectorized)
+    {
+        this.kernel = QTableKernel.get(vectorized);
+    }
+
+    /**
+     * @return whether row scans and batched updates use the Vector API.
+     */
+    public boolean isVectorized()
+    {
+        return kernel.isVectorized();
+    }
+
+    /**
+     * Get an item from the Q-Table.
+     * @param stateIndex - The index of the state in the state space manager.
+     * @param actionIndex - The index of the action in the state space manager.
+     * @return the value of the state/action pair.
+     */
+    public double get(int stateIndex, int actionIndex)
+    {
+        return qTable[stateIndex * numberOfActions + actionIndex];
     }
 
     /**
@@ -61,11 +165,91 @@ public class QTable {
      */
     public void put(int stateIndex, int actionIndex, double score)
     {
-        qTable.get(stateIndex).put(actionIndex, score);
+        int index = stateIndex * numberOfActions + actionIndex;
+        maxChange = Math.max(maxChange, Math.abs(score - qTable[index]));
+        qTable[index] = score;
+        if (checkpointRows != null)
+        {
+            checkpointRows.set(stateIndex);
+        }
+        if (snapshotInterval > 0)
+        {
+            dirtyRows.set(stateIndex);
+            if (++updatesSinceSnapshot >= snapshotInterval)
+            {
+                publishSnapshot();
+            }
+        }
+    }
+
+    /**
+     * Copy the values of every action of a state.
+     * @param stateIndex - The index of the state in the state space manager.
+     * @param out - where to copy the row to.
+     * @param offset - where the row starts in out.
+     */
+    public void copyRow(int stateIndex, double[] out, int offset)
+    {
+        System.arraycopy(qTable, stateIndex * numberOfActions, out, offset, numberOfActions);
+    }
+
+    /**
+     * Overwrite the values of every action of a state. Used to restore checkpoints, so the change is not tracked by
+     * convergence detection, snapshots or checkpoints.
+     * @param stateIndex - The index of the state in the state space manager.
+     * @param values - the row to copy from.
+     * @param offset - where the row starts in values.
+     */
+    public void setRow(int stateIndex, double[] values, int offset)
+    {
+        System.arraycopy(values, offset, qTable, stateIndex * numberOfActions, numberOfActions);
+    }
+
+    /**
+     * Write qtable.csv.gz, block-compressed with a row index, instead of qtable.csv.
+     * @param compressed - whether to compress the output.
+     */
+    public void setCompressedOutput(boolean compressed)
+    {
+        this.compressedOutput = compressed;
+    }
+
+    /**
+     * Track which rows change, for incremental checkpoints.
+     * @param enabled - whether to track changed rows.
+     */
+    public void setCheckpointTracking(boolean enabled)
+    {
+        checkpointRows = enabled ? new BitSet() : null;
+    }
+
+    /**
+     * @return the states whose rows changed since the last call, or null when rows are not tracked.
+     */
+    public BitSet takeCheckpointRows()
+    {
+        BitSet rows = checkpointRows;
+        if (rows != null)
+        {
+            checkpointRows = new BitSet();
+        }
+        return rows;
+    }
+
+    /**
+     * Used for convergence detection: how far the values moved since the last call.
+     * @return the largest absolute change made to any value since the last reset.
+     */
+    public double resetMaxChange()
+    {
+        double change = maxChange;
+        maxChange = 0;
+        return change;
     }
 
     /**
-     * Write the current qTable to qtable.csv.
+     * Write the current qTable to qtable.csv, or qtable.csv.gz when the output is compressed.
+     * Rows are formatted in parallel and streamed to disk in order, see {@link ChunkedCsvWriter}.
      */
     public void writeToFile()
     {
@@ -82,7 +266,7 @@ public class QTable {
                 possibleStates.add(space);
             }
 
-            List<List<String>> stateNames = Cartesian.productFrom(possibleStates);
+            Cartesian.Product<String> stateNames = Cartesian.lazyProductFrom(possibleStates);
 
 
             List<ActionEnumeration> actionOrder =  manager.getPossibleActions();
@@ -95,27 +279,35 @@ public class QTable {
                 possibleActions.add(space);
             }
 
-            List<List<String>> actionNames = Cartesian.productFrom(possibleActions);
+            List<List<String>> actionNames = Cartesian.lazyProductFrom(possibleActions);
 
 
-            FileWriter writer = new FileWriter(new File(saveFolder, "qtable.csv"));
-            writer.write("State/Action,");
-            for (int actionId = 0; actionId < manager.getNumberOfActions(); actionId++)
+            int dimensions = possibleStates.size();
+            String lineSeparator = System.lineSeparator();
+
+            try (ChunkedCsvWriter writer = new ChunkedCsvWriter(new File(saveFolder, compressedOutput ? "qtable.csv.gz" : "qtable.csv"), compressedOutput))
             {
-                String colHeading = String.join("/", actionNames.get(actionId));
-                writer.write(String.format("%s,", colHeading));
-            }
-            writer.write(System.lineSeparator());
-            for (int stateId = 0; stateId < manager.getNumberOfStates(); stateId ++) {
-                String rowHeading = String.join("/", stateNames.get(stateId));
-                writer.write(String.format("%s,", rowHeading));
-                for (int actionId = 0; actionId < manager.getNumberOfActions(); actionId++)
+                StringBuilder header = new StringBuilder("State/Action,");
+                for (int actionId = 0; actionId < numberOfActions; actionId++)
                 {
-                    writer.write(String.format("%f,", qTable.get(stateId).get(actionId)));
+                    header.append(String.join("/", actionNames.get(actionId))).append(',');
                 }
-                writer.write(System.lineSeparator());
+                header.append(lineSeparator);
+                writer.write(header);
+
+                writer.writeRows(numberOfStates, (stateId, out) -> {
+                    for (int d = 0; d < dimensions; d++)
+                    {
+                        out.append(d == 0 ? "" : "/").append(stateNames.get(stateId, d));
+                    }
+                    out.append(',');
+                    for (int actionId = 0; actionId < numberOfActions; actionId++)
+                    {
+                        ChunkedCsvWriter.appendFixed(out, get(stateId, actionId)).append(',');
+                    }
+                    out.append(lineSeparator);
+                });
             }
-            writer.close();
         } catch (IOException err)
         {
             Exceptions.LOGGER.severe("Unable to write qtable", err);
@@ -124,25 +316,169 @@ public class QTable {
     }
 
     /**
-     * Collect the actions with the highest reward for each state.
-     * @return the best action for each state.
+     * Pick the action with the highest value for a state. Ties go to the lowest action index.
+     * @param stateIndex - The index of the state in the state space manager.
+     * @return the index of the best action.
      */
-    public Map<Integer, Map<Integer, Double>> getOptimalPolicy()
+    public int getBestAction(int stateIndex)
     {
-        Map<Integer, Map<Integer, Double>> optimalPolicy = new HashMap<>();
-        for(int i=0; i<qTable.size(); i++)
+        return kernel.argmax(qTable, stateIndex * numberOfActions, numberOfActions);
+    }
+
+    /**
+     * @param stateIndex - The index of the state in the state space manager.
+     * @return the highest value of any action of a state.
+     */
+    public double getBestValue(int stateIndex)
+    {
+        return kernel.max(qTable, stateIndex * numberOfActions, numberOfActions);
+    }
+
+    /**
+     * Apply the Q-Learning update {@code Q(s,a) += alpha * (r + gamma * max Q(s',*) - Q(s,a))} to a batch of
+     * transitions. Every target is computed from the table before the batch; when a state/action pair appears more
+     * than once, the last transition wins.
+     * @param states - the state of each transition.
+     * @param actions - the action taken in each transition.
+     * @param rewards - the reward of each transition.
+     * @param nextStates - the state each transition ended in.
+     * @param count - the number of transitions to apply.
+     * @param alpha - the learning rate.
+     * @param gamma - the discount rate.
+     */
+    public void update(int[] states, int[] actions, double[] rewards, int[] nextStates, int count, double alpha, double gamma)
+    {
+        maxChange = Math.max(maxChange, kernel.update(qTable, numberOfActions, states, actions, rewards, nextStates, count, alpha, gamma));
+        if (checkpointRows != null)
+        {
+            for (int i = 0; i < count; i++)
+            {
+                checkpointRows.set(states[i]);
+            }
+        }
+        if (snapshotInterval > 0)
         {
+            for (int i = 0; i < count; i++)
+            {
+                dirtyRows.set(states[i]);
+            }
+            updatesSinceSnapshot += count;
+            if (updatesSinceSnapshot >= snapshotInterval)
+            {
+                publishSnapshot();
+            }
+        }
+    }
 
-            int bestActionId = Collections.max(qTable.get(i).entrySet(), Comparator.comparingDouble(Map.Entry::getValue)).getKey();
+    /**
+     * Publish a policy snapshot every few updates, readable with {@link QTable#getSnapshot()} from any thread while
+     * the table keeps changing. Snapshots are copy-on-write: each one shares the pages of the last one, and only copies
+     * and recomputes the pages holding rows that changed since.
+     * @param updates - the number of updates between snapshots. 0 disables snapshots.
+     */
+    public void setSnapshotInterval(int updates)
+    {
+        snapshotInterval = updates;
+        updatesSinceSnapshot = 0;
+        snapshot = null;
+        snapshotActions = null;
+        snapshotValues = null;
+        dirtyRows.clear();
+    }
 
-            Double bestActionValue = qTable.get(i).get(bestActionId);
-            optimalPolicy.put(i, Map.ofEntries(Map.entry(bestActionId, bestActionValue)));
+    /**
+     * @return the number of updates between snapshots. 0 when snapshots are disabled.
+     */
+    public int getSnapshotInterval()
+    {
+        return snapshotInterval;
+    }
+
+    /**
+     * Publish a snapshot of the current policy now. Only the pages holding rows that changed since the last snapshot
+     * are copied, and only those rows are recomputed, so the cost follows the changes rather than the number of
+     * states. The first snapshot computes every row.
+     */
+    public void publishSnapshot()
+    {
+        int pageLength = 1 << SNAPSHOT_PAGE_SHIFT;
+        int pages = (numberOfStates + pageLength - 1) >>> SNAPSHOT_PAGE_SHIFT;
+        int[][] bestActions;
+        double[][] bestValues;
+        if (snapshotActions == null)
+        {
+            bestActions = new int[pages][];
+            bestValues = new double[pages][];
+            for (int page = 0; page < pages; page++)
+            {
+                int length = Math.min(pageLength, numberOfStates - (page << SNAPSHOT_PAGE_SHIFT));
+                bestActions[page] = new int[length];
+                bestValues[page] = new double[length];
+            }
+            dirtyRows.set(0, numberOfStates);
+        } else {
+            bestActions = snapshotActions.clone();
+            bestValues = snapshotValues.clone();
         }
-        return optimalPolicy;
+        int copiedPage = -1;
+        for (int stateIndex = dirtyRows.nextSetBit(0); stateIndex >= 0; stateIndex = dirtyRows.nextSetBit(stateIndex + 1))
+        {
+            // Rows come in order, so a page is copied the first time one of its rows is seen.
+            int page = stateIndex >>> SNAPSHOT_PAGE_SHIFT;
+            if (page != copiedPage && snapshotActions != null)
+            {
+                bestActions[page] = bestActions[page].clone();
+                bestValues[page] = bestValues[page].clone();
+            }
+            copiedPage = page;
+            int best = getBestAction(stateIndex);
+            bestActions[page][stateIndex & (pageLength - 1)] = best;
+            bestValues[page][stateIndex & (pageLength - 1)] = get(stateIndex, best);
+        }
+        dirtyRows.clear();
+        updatesSinceSnapshot = 0;
+        snapshotActions = bestActions;
+        snapshotValues = bestValues;
+        snapshot = new Policy(bestActions, bestValues, SNAPSHOT_PAGE_SHIFT, numberOfStates);
     }
 
+    /**
+     * Safe to call from any thread, without locking.
+     * @return the last published snapshot, or null when none was published yet.
+     */
+    public Policy getSnapshot()
+    {
+        return snapshot;
+    }
+
+    /**
+     * Collect the actions with the highest reward for each state.
+     * States are processed in parallel into primitive arrays.
+     * @return the best action for each state.
+     */
+    public Policy getOptimalPolicy()
+    {
+        int[] bestActions = new int[numberOfStates];
+        double[] bestValues = new double[numberOfStates];
+        IntStream.range(0, numberOfStates).parallel().forEach(stateIndex -> {
+            int best = getBestAction(stateIndex);
+            bestActions[stateIndex] = best;
+            bestValues[stateIndex] = get(stateIndex, best);
+        });
+        return new Policy(bestActions, bestValues);
+    }
+
+    /**
+     * @param stateIndex - The index of the state in the state space manager.
+     * @return a read-only copy of the values of every action of a state.
+     */
     public Map<Integer, Double> getActions(int stateIndex)
     {
-        return qTable.get(stateIndex);
+        Map<Integer, Double> actions = new HashMap<>();
+        for (int actionIndex = 0; actionIndex < numberOfActions; actionIndex++)
+        {
+            actions.put(actionIndex, get(stateIndex, actionIndex));
+        }
+        return Collections.unmodifiableMap(actions);
     }
 }
@@ -0,0 +1,444 @@
+package optimization;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.zip.CRC32;
+
+/**
+ * Incremental checkpoints of a {@link QTable}, so a long run that crashes can resume where it stopped.
+ *
+ * Two files are kept next to qtable.csv. qtable.base holds every row. qtable.delta is an append-only log of frames,
+ * each holding the rows that changed since the frame before, which is cheap to write however large the table is.
+ * Every frame ends with a CRC32 of its contents, so a frame torn by a crash is dropped on restore. Once the log grows
+ * larger than the base, the next checkpoint compacts: it writes a new base and starts an empty log. Both files carry
+ * a generation number, so a log left over from an older base is never applied on top of a newer one.
+ *
+ * Capturing reads the table and must run wherever the table is guarded. Writing only touches the files and can run on
+ * another thread, as long as captures are written in the order they were taken.
+ */
+public class QTableCheckpoint implements Closeable {
+
+    /**
+     * The rows of one checkpoint, copied out of the table.
+     */
+    static class Capture
+    {
+        final boolean full;
+        final int[] states;
+        final double[] values;
+
+        Capture(boolean full, int[] states, double[] values)
+        {
+            this.full = full;
+            this.states = states;
+            this.values = values;
+        }
+    }
+
+    private static final int BASE_MAGIC = 0x5441494C;
+    private static final int DELTA_MAGIC = 0x54444C54;
+
+    /**
+     * Magic, generation, number of states and number of actions.
+     */
+    private static final int HEADER_BYTES = 4 + 8 + 4 + 4;
+
+    /**
+     * The base is read and written this many values at a time.
+     */
+    private static final int CHUNK_DOUBLES = 1 << 13;
+
+    private final QTable table;
+    private final File baseFile;
+    private final File deltaFile;
+    private final int numberOfStates;
+    private final int numberOfActions;
+    private final long baseBytes;
+
+    private FileChannel delta;
+    private long deltaBytes = 0;
+    private long generation = 0;
+    private boolean hasBase = false;
+
+    /**
+     * @param saveFolder - the folder the checkpoint files are kept in.
+     * @param table - the table to checkpoint. Changed rows are tracked from now on.
+     */
+    public QTableCheckpoint(File saveFolder, QTable table)
+    {
+        this.table = table;
+        this.baseFile = new File(saveFolder, "qtable.base");
+        this.deltaFile = new File(saveFolder, "qtable.delta");
+        this.numberOfStates = table.getNumberOfStates();
+        this.numberOfActions = table.getNumberOfActions();
+        this.baseBytes = HEADER_BYTES + 8L * numberOfStates * numberOfActions + 8;
+        table.setCheckpointTracking(true);
+    }
+
+    /**
+     * Load the base and every intact frame of the log into the table. A checkpoint of a table with other dimensions
+     * is ignored and overwritten by the next checkpoint. A torn frame at the end of the log is cut off.
+     * @return whether a checkpoint was restored.
+     */
+    public boolean restore()
+    {
+        if (!baseFile.exists())
+        {
+            return false;
+        }
+        try {
+            if (!restoreBase())
+            {
+                Exceptions.LOGGER.warning("Ignoring checkpoint " + baseFile + ", it does not match the Q-Table");
+                return false;
+            }
+            restoreDelta();
+            return true;
+        } catch (IOException err)
+        {
+            Exceptions.LOGGER.severe("Unable to restore checkpoint " + baseFile, err);
+            return false;
+        }
+    }
+
+    private boolean restoreBase() throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(baseFile.toPath(), StandardOpenOption.READ))
+        {
+            if (channel.size() != baseBytes)
+            {
+                return false;
+            }
+            CRC32 crc = new CRC32();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            readFully(channel, header);
+            crc.update(header.array());
+            header.flip();
+            long baseGeneration = readHeader(header, BASE_MAGIC);
+            if (baseGeneration < 0)
+            {
+                return false;
+            }
+            // Read every row first, so a corrupt base leaves the table untouched.
+            double[] values = new double[numberOfStates * numberOfActions];
+            ByteBuffer chunk = ByteBuffer.allocate(CHUNK_DOUBLES * 8);
+            for (int offset = 0; offset < values.length; offset += CHUNK_DOUBLES)
+            {
+                int length = Math.min(CHUNK_DOUBLES, values.length - offset);
+                chunk.clear().limit(length * 8);
+                readFully(channel, chunk);
+                crc.update(chunk.array(), 0, length * 8);
+                chunk.flip();
+                chunk.asDoubleBuffer().get(values, offset, length);
+            }
+            ByteBuffer checksum = ByteBuffer.allocate(8);
+            readFully(channel, checksum);
+            if (checksum.getLong(0) != crc.getValue())
+            {
+                return false;
+            }
+            for (int stateIndex = 0; stateIndex < numberOfStates; stateIndex++)
+            {
+                table.setRow(stateIndex, values, stateIndex * numberOfActions);
+            }
+            generation = baseGeneration;
+            hasBase = true;
+            return true;
+        }
+    }
+
+    /**
+     * Apply every intact frame of the log. A log of another generation is replaced by an empty one.
+     */
+    private void restoreDelta() throws IOException
+    {
+        if (!deltaFile.exists())
+        {
+            resetDelta();
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(deltaFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE))
+        {
+            long size = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            if (size >= HEADER_BYTES)
+            {
+                readFully(channel, header);
+                header.flip();
+            }
+            if (size < HEADER_BYTES || readHeader(header, DELTA_MAGIC) != generation)
+            {
+                deltaBytes = -1;
+            } else {
+                deltaBytes = applyFrames(channel, size);
+                if (deltaBytes < size)
+                {
+                    Exceptions.LOGGER.warning("Dropping a torn checkpoint frame at the end of " + deltaFile);
+                    channel.truncate(deltaBytes);
+                }
+            }
+        }
+        if (deltaBytes < 0)
+        {
+            resetDelta();
+            return;
+        }
+        delta = FileChannel.open(deltaFile.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Apply frames from the position of the channel until the first incomplete or corrupt one. Frames are read one at a
+     * time, so a log of any length is restored without mapping it, and the file can be truncated right after.
+     * @param channel - the log, positioned after its header.
+     * @param size - the length of the log.
+     * @return where the intact frames end.
+     */
+    private long applyFrames(FileChannel channel, long size) throws IOException
+    {
+        double[] row = new double[numberOfActions];
+        ByteBuffer count = ByteBuffer.allocate(4);
+        ByteBuffer frame = ByteBuffer.allocate(0);
+        long frameStart = channel.position();
+        while (size - frameStart >= 4)
+        {
+            count.clear();
+            readFully(channel, count);
+            int rows = count.getInt(0);
+            long frameBytes = 4 + (long) rows * (4 + 8L * numberOfActions);
+            if (rows < 0 || frameStart + frameBytes + 8 > size || frameBytes + 8 > Integer.MAX_VALUE)
+            {
+                break;
+            }
+            int length = (int) frameBytes + 8;
+            if (frame.capacity() < length)
+            {
+                frame = ByteBuffer.allocate(length);
+            }
+            frame.clear().limit(length);
+            frame.putInt(rows);
+            readFully(channel, frame);
+            if (!checksumMatches(frame, 0, (int) frameBytes))
+            {
+                break;
+            }
+            frame.position(4);
+            for (int i = 0; i < rows; i++)
+            {
+                int stateIndex = frame.getInt();
+                frame.asDoubleBuffer().get(row);
+                frame.position(frame.position() + 8 * numberOfActions);
+                if (stateIndex >= 0 && stateIndex < numberOfStates)
+                {
+                    table.setRow(stateIndex, row, 0);
+                }
+            }
+            frameStart += length;
+        }
+        return frameStart;
+    }
+
+    /**
+     * Copy the rows that changed since the last capture, or the whole table when no base was written yet or the log
+     * has grown larger than the base. Must be called wherever the table is guarded.
+     * @return the rows, or null when nothing changed.
+     */
+    Capture capture()
+    {
+        BitSet rows = table.takeCheckpointRows();
+        if (!hasBase || deltaBytes >= baseBytes)
+        {
+            double[] values = new double[numberOfStates * numberOfActions];
+            for (int stateIndex = 0; stateIndex < numberOfStates; stateIndex++)
+            {
+                table.copyRow(stateIndex, values, stateIndex * numberOfActions);
+            }
+            return new Capture(true, null, values);
+        }
+        if (rows == null || rows.isEmpty())
+        {
+            return null;
+        }
+        int[] states = new int[rows.cardinality()];
+        double[] values = new double[states.length * numberOfActions];
+        int i = 0;
+        for (int stateIndex = rows.nextSetBit(0); stateIndex >= 0; stateIndex = rows.nextSetBit(stateIndex + 1))
+        {
+            states[i] = stateIndex;
+            table.copyRow(stateIndex, values, i * numberOfActions);
+            i++;
+        }
+        return new Capture(false, states, values);
+    }
+
+    /**
+     * Write a capture: a new base and an empty log for a full capture, otherwise one frame appended to the log.
+     * @param capture - (nullable) the capture. Null writes nothing.
+     */
+    void write(Capture capture) throws IOException
+    {
+        if (capture == null)
+        {
+            return;
+        }
+        if (capture.full)
+        {
+            writeBase(capture.values);
+            return;
+        }
+        int frameBytes = 4 + capture.states.length * (4 + 8 * numberOfActions);
+        ByteBuffer buffer = ByteBuffer.allocate(frameBytes + 8);
+        buffer.putInt(capture.states.length);
+        for (int i = 0; i < capture.states.length; i++)
+        {
+            buffer.putInt(capture.states[i]);
+            buffer.asDoubleBuffer().put(capture.values, i * numberOfActions, numberOfActions);
+            buffer.position(buffer.position() + 8 * numberOfActions);
+        }
+        buffer.putLong(checksum(buffer, 0, frameBytes));
+        buffer.flip();
+        writeFully(delta, buffer);
+        delta.force(false);
+        deltaBytes += buffer.limit();
+    }
+
+    /**
+     * Checkpoint now: capture and write in one go. Must be called wherever the table is guarded.
+     */
+    public void checkpoint() throws IOException
+    {
+        write(capture());
+    }
+
+    private void writeBase(double[] values) throws IOException
+    {
+        long nextGeneration = generation + 1;
+        File temp = new File(baseFile.getParentFile(), baseFile.getName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            CRC32 crc = new CRC32();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            writeHeader(header, BASE_MAGIC, nextGeneration);
+            crc.update(header.array());
+            header.flip();
+            writeFully(channel, header);
+            ByteBuffer chunk = ByteBuffer.allocate(CHUNK_DOUBLES * 8);
+            for (int offset = 0; offset < values.length; offset += CHUNK_DOUBLES)
+            {
+                int length = Math.min(CHUNK_DOUBLES, values.length - offset);
+                chunk.clear();
+                chunk.asDoubleBuffer().put(values, offset, length);
+                chunk.limit(length * 8);
+                crc.update(chunk.array(), 0, length * 8);
+                writeFully(channel, chunk);
+            }
+            writeFully(channel, ByteBuffer.allocate(8).putLong(0, crc.getValue()));
+            channel.force(false);
+        }
+        Files.move(temp.toPath(), baseFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        generation = nextGeneration;
+        hasBase = true;
+        resetDelta();
+    }
+
+    /**
+     * Start an empty log for the current generation.
+     */
+    private void resetDelta() throws IOException
+    {
+        closeDelta();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        writeHeader(header, DELTA_MAGIC, generation);
+        header.flip();
+        replace(deltaFile, header);
+        delta = FileChannel.open(deltaFile.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        deltaBytes = HEADER_BYTES;
+    }
+
+    /**
+     * Write a file next to its destination, then move it in place, so a crash never leaves a partial file behind.
+     */
+    private static void replace(File file, ByteBuffer contents) throws IOException
+    {
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            writeFully(channel, contents);
+            channel.force(false);
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void writeHeader(ByteBuffer buffer, int magic, long generation)
+    {
+        buffer.putInt(magic).putLong(generation).putInt(numberOfStates).putInt(numberOfActions);
+    }
+
+    /**
+     * @return the generation, or -1 when the header does not belong to this table.
+     */
+    private long readHeader(ByteBuffer buffer, int magic)
+    {
+        int fileMagic = buffer.getInt();
+        long fileGeneration = buffer.getLong();
+        int states = buffer.getInt();
+        int actions = buffer.getInt();
+        return fileMagic == magic && states == numberOfStates && actions == numberOfActions ? fileGeneration : -1;
+    }
+
+    private static long checksum(ByteBuffer buffer, int offset, int length)
+    {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate().limit(offset + length).position(offset));
+        return crc.getValue();
+    }
+
+    private static boolean checksumMatches(ByteBuffer buffer, int offset, int length)
+    {
+        return buffer.getLong(offset + length) == checksum(buffer, offset, length);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            if (channel.read(buffer) < 0)
+            {
+                throw new IOException("Unexpected end of checkpoint");
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            channel.write(buffer);
+        }
+    }
+
+    private void closeDelta() throws IOException
+    {
+        if (delta != null)
+        {
+            delta.close();
+            delta = null;
+        }
+    }
+
+    /**
+     * Stop tracking changed rows and close the log.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        table.setCheckpointTracking(false);
+        closeDelta();
+    }
+}
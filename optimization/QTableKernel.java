@@ -0,0 +1,120 @@
+package optimization;
+
+/**
+ * The inner loops of {@link QTable}: row argmax/max and batched Bellman updates over the row-major value array.
+ *
+ * Two implementations exist. {@link ScalarQTableKernel} is plain Java. VectorQTableKernel uses the incubating Vector
+ * API and lives in its own source set, vector/optimization, so the rest of the library compiles without
+ * {@code --add-modules jdk.incubator.vector}. Compile that folder with the flag onto the same classpath and run with
+ * it to use the kernel; without it the scalar kernel is used. Set the system property {@code optimization.simd=false}
+ * to force the scalar kernel.
+ */
+public abstract class QTableKernel {
+
+    /**
+     * Narrower rows fit in one or two vectors, where the lane setup costs more than it saves. Measured with
+     * test/optimization/QTableKernelBenchmark.
+     */
+    private static final int MIN_VECTOR_ROW_LENGTH = 32;
+
+    private static final QTableKernel SCALAR = new ScalarQTableKernel();
+    private static final QTableKernel VECTOR = loadVectorKernel();
+
+    private static QTableKernel loadVectorKernel()
+    {
+        try {
+            return (QTableKernel) Class.forName("optimization.VectorQTableKernel").getDeclaredConstructor().newInstance();
+        } catch (Throwable err)
+        {
+            Exceptions.LOGGER.fine("Vector API unavailable, using scalar Q-Table kernel");
+            return null;
+        }
+    }
+
+    /**
+     * @param rowLength - the number of actions per row.
+     * @return the vector kernel when it is available, not disabled and the rows are wide enough, otherwise the
+     * scalar kernel.
+     */
+    public static QTableKernel getDefault(int rowLength)
+    {
+        boolean enabled = Boolean.parseBoolean(System.getProperty("optimization.simd", "true"));
+        return get(enabled && rowLength >= MIN_VECTOR_ROW_LENGTH);
+    }
+
+    /**
+     * @param vectorized - whether the Vector API kernel is wanted.
+     * @return the requested kernel, or the scalar kernel when the Vector API is unavailable.
+     */
+    public static QTableKernel get(boolean vectorized)
+    {
+        return vectorized && VECTOR != null ? VECTOR : SCALAR;
+    }
+
+    /**
+     * @return whether this kernel uses the Vector API.
+     */
+    public abstract boolean isVectorized();
+
+    /**
+     * Find the largest value of a row. Ties go to the lowest index.
+     * @param q - the values.
+     * @param offset - the start of the row.
+     * @param length - the length of the row.
+     * @return the index of the largest value, relative to offset.
+     */
+    public abstract int argmax(double[] q, int offset, int length);
+
+    /**
+     * @param q - the values.
+     * @param offset - the start of the row.
+     * @param length - the length of the row.
+     * @return the largest value of a row.
+     */
+    public abstract double max(double[] q, int offset, int length);
+
+    /**
+     * Apply {@code q += alpha * (r + gamma * maxNext - q)} to a batch of transitions. Every target is computed from
+     * the values before the batch; when a state/action pair appears more than once, the last one wins.
+     * @param q - the values.
+     * @param numberOfActions - the row length.
+     * @param states - the state of each transition.
+     * @param actions - the action of each transition.
+     * @param rewards - the reward of each transition.
+     * @param nextStates - the state each transition ended in.
+     * @param count - the number of transitions to apply.
+     * @param alpha - the learning rate.
+     * @param gamma - the discount rate.
+     * @return the largest absolute change made to any value.
+     */
+    public double update(double[] q, int numberOfActions, int[] states, int[] actions, double[] rewards, int[] nextStates, int count, double alpha, double gamma)
+    {
+        double[] values = new double[count];
+        for (int i = 0; i < count; i++)
+        {
+            values[i] = max(q, nextStates[i] * numberOfActions, numberOfActions);
+        }
+        int[] indexes = new int[count];
+        for (int i = 0; i < count; i++)
+        {
+            indexes[i] = states[i] * numberOfActions + actions[i];
+        }
+        bellman(q, indexes, rewards, values, count, alpha, gamma);
+        double change = 0;
+        for (int i = 0; i < count; i++)
+        {
+            change = Math.max(change, Math.abs(values[i] - q[indexes[i]]));
+            q[indexes[i]] = values[i];
+        }
+        return change;
+    }
+
+    /**
+     * Replace each maxNext with the updated value of its transition.
+     * @param q - the values.
+     * @param indexes - the position of each transition's value in q.
+     * @param rewards - the reward of each transition.
+     * @param maxNext - in: the best value of each next state. Out: the new value of each transition.
+     */
+    protected abstract void bellman(double[] q, int[] indexes, double[] rewards, double[] maxNext, int count, double alpha, double gamma);
+}
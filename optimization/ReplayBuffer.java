@@ -0,0 +1,218 @@
+package optimization;
+
+import java.util.SplittableRandom;
+import java.util.random.RandomGenerator;
+
+/**
+ * A fixed-capacity buffer of recent transitions for experience replay.
+ *
+ * Transitions are stored as a struct of primitive arrays and overwrite the oldest once the buffer is full, so memory
+ * stays bounded however long the engine runs. Sampling is either uniform or prioritized: each transition has a
+ * priority, kept in a sum tree so that drawing in proportion to priority and updating a priority are both
+ * logarithmic. New transitions get the largest priority seen so far, so every transition is replayed at least once
+ * with good odds.
+ */
+public class ReplayBuffer {
+
+    /**
+     * How strongly priorities shape sampling. 0 is uniform, 1 is fully proportional to the TD error.
+     */
+    private static final double PRIORITY_EXPONENT = 0.6;
+
+    /**
+     * Keeps transitions with no TD error sampleable.
+     */
+    private static final double MIN_PRIORITY = 1e-6;
+
+    private final int capacity;
+    private final int[] states;
+    private final int[] actions;
+    private final int[] nextStates;
+    private final double[] rewards;
+    private final double[] probabilities;
+    private int size = 0;
+    private int next = 0;
+
+    /**
+     * Sum tree of priorities. Leaf i is at leaves + i, and every inner node holds the sum of its children.
+     */
+    private final double[] tree;
+    private final int leaves;
+    private double maxPriority = 1;
+
+    private RandomGenerator random = new SplittableRandom();
+
+    /**
+     * The last batch drawn by {@link ReplayBuffer#sample(int, boolean)}.
+     */
+    private int[] sampledIndexes = new int[0];
+    private int[] sampledStates = new int[0];
+    private int[] sampledActions = new int[0];
+    private double[] sampledRewards = new double[0];
+    private int[] sampledNextStates = new int[0];
+
+    /**
+     * @param capacity - the number of transitions kept.
+     */
+    public ReplayBuffer(int capacity)
+    {
+        this.capacity = capacity;
+        this.states = new int[capacity];
+        this.actions = new int[capacity];
+        this.nextStates = new int[capacity];
+        this.rewards = new double[capacity];
+        this.probabilities = new double[capacity];
+        int leaves = 1;
+        while (leaves < capacity)
+        {
+            leaves <<= 1;
+        }
+        this.leaves = leaves;
+        this.tree = new double[leaves * 2];
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    /**
+     * Replace the generator used for sampling, to make draws reproducible.
+     * @param random - the generator to sample with.
+     */
+    public void setRandom(RandomGenerator random)
+    {
+        this.random = random;
+    }
+
+    /**
+     * Add a transition, replacing the oldest one when full.
+     * @param stateIndex - the state the transition started in.
+     * @param actionIndex - the action taken.
+     * @param nextStateIndex - the state the transition ended in.
+     * @param reward - the reward.
+     * @param probability - the probability that the new state was encountered.
+     */
+    public void add(int stateIndex, int actionIndex, int nextStateIndex, double reward, double probability)
+    {
+        states[next] = stateIndex;
+        actions[next] = actionIndex;
+        nextStates[next] = nextStateIndex;
+        rewards[next] = reward;
+        probabilities[next] = probability;
+        setPriority(next, maxPriority);
+        next = (next + 1) % capacity;
+        size = Math.min(size + 1, capacity);
+    }
+
+    /**
+     * @param i - a position below {@link ReplayBuffer#size()}.
+     * @return the probability recorded with a transition.
+     */
+    public double getProbability(int i)
+    {
+        return probabilities[i];
+    }
+
+    /**
+     * Draw a minibatch. Read it back with the sampled getters. Transitions are drawn with replacement.
+     * @param count - the number of transitions to draw.
+     * @param prioritized - draw in proportion to priority instead of uniformly.
+     * @return the number of transitions drawn. 0 when the buffer is empty.
+     */
+    public int sample(int count, boolean prioritized)
+    {
+        if (size == 0)
+        {
+            return 0;
+        }
+        if (sampledIndexes.length < count)
+        {
+            sampledIndexes = new int[count];
+            sampledStates = new int[count];
+            sampledActions = new int[count];
+            sampledRewards = new double[count];
+            sampledNextStates = new int[count];
+        }
+        for (int i = 0; i < count; i++)
+        {
+            int index = prioritized ? find(random.nextDouble() * tree[1]) : random.nextInt(size);
+            sampledIndexes[i] = index;
+            sampledStates[i] = states[index];
+            sampledActions[i] = actions[index];
+            sampledRewards[i] = rewards[index];
+            sampledNextStates[i] = nextStates[index];
+        }
+        return count;
+    }
+
+    /**
+     * Set the priorities of the last minibatch from the TD errors found when replaying it.
+     * @param errors - the TD error of each sampled transition.
+     * @param count - the number of sampled transitions.
+     */
+    public void updatePriorities(double[] errors, int count)
+    {
+        for (int i = 0; i < count; i++)
+        {
+            double priority = Math.pow(Math.abs(errors[i]) + MIN_PRIORITY, PRIORITY_EXPONENT);
+            maxPriority = Math.max(maxPriority, priority);
+            setPriority(sampledIndexes[i], priority);
+        }
+    }
+
+    public int[] getSampledStates()
+    {
+        return sampledStates;
+    }
+
+    public int[] getSampledActions()
+    {
+        return sampledActions;
+    }
+
+    public double[] getSampledRewards()
+    {
+        return sampledRewards;
+    }
+
+    public int[] getSampledNextStates()
+    {
+        return sampledNextStates;
+    }
+
+    private void setPriority(int index, double priority)
+    {
+        int node = leaves + index;
+        double change = priority - tree[node];
+        for (; node > 0; node >>>= 1)
+        {
+            tree[node] += change;
+        }
+    }
+
+    /**
+     * Walk down the sum tree to the leaf whose range of cumulative priority holds a value.
+     */
+    private int find(double value)
+    {
+        int node = 1;
+        while (node < leaves)
+        {
+            int left = node << 1;
+            if (value < tree[left])
+            {
+                node = left;
+            } else {
+                value -= tree[left];
+                node = left + 1;
+            }
+        }
+        return Math.min(node - leaves, size - 1);
+    }
+}
@@ -15,6 +15,15 @@ public class Result {
     public State newState;
     public double probability;
     public double score;
+
+    /**
+     * The IDs of the states and actions, when they were computed with the result. -1 otherwise.
+     * @see StateActionCodec
+     */
+    public int oldStateId = -1;
+    public int actionId = -1;
+    public int newStateId = -1;
+
     public Result(State oldState, List<ActionEnumeration> actions, State newState, double probability, double score){
         this.oldState = oldState;
         this.actions = actions;
@@ -23,6 +32,14 @@ public class Result {
         this.score = score;
     }
 
+    public Result(State oldState, List<ActionEnumeration> actions, State newState, double probability, double score,
+                  int oldStateId, int actionId, int newStateId){
+        this(oldState, actions, newState, probability, score);
+        this.oldStateId = oldStateId;
+        this.actionId = actionId;
+        this.newStateId = newStateId;
+    }
+
     @Override
     public String toString() {
         return "Result{" +
@@ -0,0 +1,48 @@
+package optimization;
+
+/**
+ * Plain Java {@link QTableKernel}. Always available.
+ */
+class ScalarQTableKernel extends QTableKernel {
+
+    @Override
+    public boolean isVectorized()
+    {
+        return false;
+    }
+
+    @Override
+    public int argmax(double[] q, int offset, int length)
+    {
+        int best = 0;
+        for (int i = 1; i < length; i++)
+        {
+            if (q[offset + i] > q[offset + best])
+            {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public double max(double[] q, int offset, int length)
+    {
+        double max = q[offset];
+        for (int i = 1; i < length; i++)
+        {
+            max = Math.max(max, q[offset + i]);
+        }
+        return max;
+    }
+
+    @Override
+    protected void bellman(double[] q, int[] indexes, double[] rewards, double[] maxNext, int count, double alpha, double gamma)
+    {
+        for (int i = 0; i < count; i++)
+        {
+            double value = q[indexes[i]];
+            maxNext[i] = value + alpha * (rewards[i] + gamma * maxNext[i] - value);
+        }
+    }
+}
@@ -5,6 +5,7 @@ import state.State;
 import state.StateSpaceManager;
 
 import java.util.*;
+import java.util.random.RandomGenerator;
 import java.util.stream.Collectors;
 
 /**
@@ -109,8 +110,13 @@ public class StateActionCache {
     public void add(int stateIndex, int actionIndex, State oldState, List<ActionEnumeration> action, State newState, double probability, double score)
     {
 //        System.out.println(String.format("Adding to cache: %d, %d", stateIndex, actionIndex));
+        add(stateIndex, actionIndex, new Result(oldState, action, newState, probability, score));
+    }
+
+    public void add(int stateIndex, int actionIndex, Result result)
+    {
         List<Result> results = get(stateIndex, actionIndex);
-        results.add(new Result(oldState, action, newState, probability, score));
+        results.add(result);
         put(stateIndex, actionIndex, results);
     }
 
@@ -121,7 +127,19 @@ public class StateActionCache {
 
     public Result chooseOne(int stateIndex, int actionIndex)
     {
-        WeightedRandom<Double> random = new WeightedRandom<>();
+        return chooseOne(stateIndex, actionIndex, null);
+    }
+
+    /**
+     * Pick one of the cached results of a state/action pair, weighted by probability.
+     * @param stateIndex - The index of the state in the state space manager.
+     * @param actionIndex - The index of the action in the state space manager.
+     * @param generator - (nullable) the generator to draw from. Null draws from the generator of the calling thread.
+     * @return the chosen result.
+     */
+    public Result chooseOne(int stateIndex, int actionIndex, RandomGenerator generator)
+    {
+        WeightedRandom<Double> random = new WeightedRandom<>(generator);
         List<Result> results = get(stateIndex, actionIndex);
         List<Double> probs = results.stream().map((Result r) -> r.probability).collect(Collectors.toList());
         random.addAll(probs);
@@ -0,0 +1,118 @@
+package optimization;
+
+import state.ActionEnumeration;
+import state.State;
+import state.StateSpaceManager;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes state and action IDs from enum ordinals.
+ *
+ * The IDs are mixed-radix numbers over the ordinals of each dimension, in the order of
+ * {@link StateSpaceManager#getStateEnumOrder()} and {@link StateSpaceManager#getPossibleActions()}, with the last
+ * dimension varying fastest. That is the numbering the manager uses and the one {@link QTable#writeToFile()} labels
+ * its rows and columns with. The radices are read once, so encoding is a few multiplications per step instead of a
+ * lookup of the whole State or action list.
+ */
+public class StateActionCodec {
+
+    private final Class<?>[] stateDimensions;
+    private final int[] stateRadices;
+    private final Map<Class<?>, Integer> stateDimensionIndexes = new IdentityHashMap<>();
+
+    private final Class<?>[] actionDimensions;
+    private final int[] actionRadices;
+    private final Map<Class<?>, Integer> actionDimensionIndexes = new IdentityHashMap<>();
+
+    /**
+     * @param manager - the manager whose enums are encoded. Enums registered later are not seen.
+     */
+    public StateActionCodec(StateSpaceManager manager)
+    {
+        List<?> states = manager.getStateEnumOrder();
+        stateDimensions = new Class<?>[states.size()];
+        stateRadices = new int[states.size()];
+        describe(states, stateDimensions, stateRadices, stateDimensionIndexes);
+
+        List<?> actions = manager.getPossibleActions();
+        actionDimensions = new Class<?>[actions.size()];
+        actionRadices = new int[actions.size()];
+        describe(actions, actionDimensions, actionRadices, actionDimensionIndexes);
+    }
+
+    private static void describe(List<?> enums, Class<?>[] dimensions, int[] radices, Map<Class<?>, Integer> indexes)
+    {
+        for (int i = 0; i < dimensions.length; i++)
+        {
+            dimensions[i] = ((Enum<?>) enums.get(i)).getDeclaringClass();
+            radices[i] = dimensions[i].getEnumConstants().length;
+            indexes.put(dimensions[i], i);
+        }
+    }
+
+    /**
+     * @param state - the state.
+     * @return the ID of the state.
+     */
+    public int encodeState(State state)
+    {
+        return encode(state.getValues(), stateDimensions, stateRadices, stateDimensionIndexes);
+    }
+
+    /**
+     * @param actions - one value per action enum.
+     * @return the ID of the actions.
+     */
+    public int encodeActions(List<ActionEnumeration> actions)
+    {
+        return encode(actions, actionDimensions, actionRadices, actionDimensionIndexes);
+    }
+
+    /**
+     * Values are expected in dimension order. Values in any other order are placed by their enum class.
+     */
+    private static int encode(List<?> values, Class<?>[] dimensions, int[] radices, Map<Class<?>, Integer> indexes)
+    {
+        if (values.size() != dimensions.length)
+        {
+            throw new IllegalArgumentException(String.format("Expected %d values but got %d", dimensions.length, values.size()));
+        }
+        int[] ordinals = null;
+        int id = 0;
+        for (int i = 0; i < dimensions.length; i++)
+        {
+            Enum<?> value = (Enum<?>) values.get(i);
+            if (ordinals == null && value.getDeclaringClass() == dimensions[i])
+            {
+                id = id * radices[i] + value.ordinal();
+                continue;
+            }
+            if (ordinals == null)
+            {
+                ordinals = new int[dimensions.length];
+                for (int j = 0; j < i; j++)
+                {
+                    ordinals[j] = ((Enum<?>) values.get(j)).ordinal();
+                }
+            }
+            Integer dimension = indexes.get(value.getDeclaringClass());
+            if (dimension == null)
+            {
+                throw new IllegalArgumentException(value.getDeclaringClass().getName() + " is not registered with the manager");
+            }
+            ordinals[dimension] = value.ordinal();
+        }
+        if (ordinals != null)
+        {
+            id = 0;
+            for (int i = 0; i < dimensions.length; i++)
+            {
+                id = id * radices[i] + ordinals[i];
+            }
+        }
+        return id;
+    }
+}
@@ -0,0 +1,310 @@
+package optimization;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.random.RandomGenerator;
+
+/**
+ * A model of the observed transitions, used for Dyna-style planning.
+ *
+ * Every state/action pair that was observed keeps a chain of the states it led to, with how often each one was seen
+ * and the sum of their rewards. Planning samples a pair uniformly, then an outcome in proportion to how often it was
+ * seen, and replays it with its mean reward. Everything is stored in primitive arrays keyed by
+ * {@code stateIndex * numberOfActions + actionIndex}, unlike {@link StateActionCache}, so recording and sampling do not
+ * allocate.
+ */
+public class TransitionModel {
+
+    /**
+     * Receives a state/action pair.
+     */
+    public interface PairConsumer
+    {
+        void accept(int stateIndex, int actionIndex);
+    }
+
+    private static final int EMPTY = -1;
+
+    private final int numberOfActions;
+    private RandomGenerator random = new SplittableRandom();
+
+    /**
+     * Open addressing from a pair key to its pair slot.
+     */
+    private int[] table;
+
+    /**
+     * Observed pairs, in order of first observation.
+     */
+    private int[] pairKeys = new int[16];
+    private int[] pairVisits = new int[16];
+    private int[] firstOutcomes = new int[16];
+    private int pairs = 0;
+
+    /**
+     * Outcomes, chained per pair through nextOutcomes.
+     */
+    private int[] outcomeStates = new int[16];
+    private int[] outcomeCounts = new int[16];
+    private double[] outcomeRewards = new double[16];
+    private int[] nextOutcomes = new int[16];
+    private int outcomes = 0;
+
+    /**
+     * Predecessors: every outcome leading into a state, chained through nextPredecessors and indexed by that state.
+     */
+    private int[] outcomePairs = new int[16];
+    private int[] nextPredecessors = new int[16];
+    private int[] predecessorHeads = new int[0];
+
+    /**
+     * The last batch drawn by {@link TransitionModel#sample(int)}.
+     */
+    private int[] sampledStates = new int[0];
+    private int[] sampledActions = new int[0];
+    private double[] sampledRewards = new double[0];
+    private int[] sampledNextStates = new int[0];
+
+    /**
+     * @param numberOfActions - the number of actions in the state space manager.
+     */
+    public TransitionModel(int numberOfActions)
+    {
+        this.numberOfActions = numberOfActions;
+        this.table = new int[32];
+        Arrays.fill(table, EMPTY);
+    }
+
+    /**
+     * Replace the generator used for sampling, to make draws reproducible.
+     * @param random - the generator to sample with.
+     */
+    public void setRandom(RandomGenerator random)
+    {
+        this.random = random;
+    }
+
+    /**
+     * Record a transition.
+     * @param stateIndex - the state the transition started in.
+     * @param actionIndex - the action taken.
+     * @param nextStateIndex - the state the transition ended in.
+     * @param reward - the reward of the transition.
+     */
+    public void add(int stateIndex, int actionIndex, int nextStateIndex, double reward)
+    {
+        int pair = findOrAddPair(stateIndex * numberOfActions + actionIndex);
+        pairVisits[pair]++;
+        for (int outcome = firstOutcomes[pair]; outcome != EMPTY; outcome = nextOutcomes[outcome])
+        {
+            if (outcomeStates[outcome] == nextStateIndex)
+            {
+                outcomeCounts[outcome]++;
+                outcomeRewards[outcome] += reward;
+                return;
+            }
+        }
+        if (outcomes == outcomeStates.length)
+        {
+            int capacity = outcomes * 2;
+            outcomeStates = Arrays.copyOf(outcomeStates, capacity);
+            outcomeCounts = Arrays.copyOf(outcomeCounts, capacity);
+            outcomeRewards = Arrays.copyOf(outcomeRewards, capacity);
+            nextOutcomes = Arrays.copyOf(nextOutcomes, capacity);
+            outcomePairs = Arrays.copyOf(outcomePairs, capacity);
+            nextPredecessors = Arrays.copyOf(nextPredecessors, capacity);
+        }
+        if (nextStateIndex >= predecessorHeads.length)
+        {
+            int length = predecessorHeads.length;
+            predecessorHeads = Arrays.copyOf(predecessorHeads, Math.max(nextStateIndex + 1, length * 2));
+            Arrays.fill(predecessorHeads, length, predecessorHeads.length, EMPTY);
+        }
+        outcomeStates[outcomes] = nextStateIndex;
+        outcomeCounts[outcomes] = 1;
+        outcomeRewards[outcomes] = reward;
+        nextOutcomes[outcomes] = firstOutcomes[pair];
+        firstOutcomes[pair] = outcomes;
+        outcomePairs[outcomes] = pair;
+        nextPredecessors[outcomes] = predecessorHeads[nextStateIndex];
+        predecessorHeads[nextStateIndex] = outcomes++;
+    }
+
+    /**
+     * Call back with every observed state/action pair that led to a state.
+     * @param stateIndex - the state.
+     * @param consumer - receives each predecessor once.
+     */
+    public void forEachPredecessor(int stateIndex, PairConsumer consumer)
+    {
+        if (stateIndex >= predecessorHeads.length)
+        {
+            return;
+        }
+        for (int outcome = predecessorHeads[stateIndex]; outcome != EMPTY; outcome = nextPredecessors[outcome])
+        {
+            int key = pairKeys[outcomePairs[outcome]];
+            consumer.accept(key / numberOfActions, key % numberOfActions);
+        }
+    }
+
+    /**
+     * The expected Q-Learning target of a pair under the model: the mean over its outcomes, weighted by how often
+     * each was seen, of {@code reward + gamma * max Q(nextState, *)}.
+     * @param stateIndex - the state.
+     * @param actionIndex - the action.
+     * @param qTable - the current values.
+     * @param gamma - the discount rate.
+     * @return the expected target, or NaN if the pair was never observed.
+     */
+    public double expectedTarget(int stateIndex, int actionIndex, QTable qTable, double gamma)
+    {
+        int pair = findPair(stateIndex * numberOfActions + actionIndex);
+        if (pair == EMPTY)
+        {
+            return Double.NaN;
+        }
+        double rewards = 0;
+        double values = 0;
+        for (int outcome = firstOutcomes[pair]; outcome != EMPTY; outcome = nextOutcomes[outcome])
+        {
+            rewards += outcomeRewards[outcome];
+            values += outcomeCounts[outcome] * qTable.getBestValue(outcomeStates[outcome]);
+        }
+        return (rewards + gamma * values) / pairVisits[pair];
+    }
+
+    /**
+     * @return the number of distinct state/action pairs observed.
+     */
+    public int size()
+    {
+        return pairs;
+    }
+
+    /**
+     * Draw simulated transitions from the model. Read them back with the sampled getters.
+     * @param count - the number of transitions to draw.
+     * @return the number of transitions drawn. 0 when nothing has been observed yet.
+     */
+    public int sample(int count)
+    {
+        if (pairs == 0)
+        {
+            return 0;
+        }
+        if (sampledStates.length < count)
+        {
+            sampledStates = new int[count];
+            sampledActions = new int[count];
+            sampledRewards = new double[count];
+            sampledNextStates = new int[count];
+        }
+        for (int i = 0; i < count; i++)
+        {
+            int pair = random.nextInt(pairs);
+            int outcome = firstOutcomes[pair];
+            for (int pick = random.nextInt(pairVisits[pair]); pick >= outcomeCounts[outcome]; outcome = nextOutcomes[outcome])
+            {
+                pick -= outcomeCounts[outcome];
+            }
+            sampledStates[i] = pairKeys[pair] / numberOfActions;
+            sampledActions[i] = pairKeys[pair] % numberOfActions;
+            sampledRewards[i] = outcomeRewards[outcome] / outcomeCounts[outcome];
+            sampledNextStates[i] = outcomeStates[outcome];
+        }
+        return count;
+    }
+
+    public int[] getSampledStates()
+    {
+        return sampledStates;
+    }
+
+    public int[] getSampledActions()
+    {
+        return sampledActions;
+    }
+
+    public double[] getSampledRewards()
+    {
+        return sampledRewards;
+    }
+
+    public int[] getSampledNextStates()
+    {
+        return sampledNextStates;
+    }
+
+    private int findPair(int key)
+    {
+        int mask = table.length - 1;
+        for (int i = mix(key) & mask; table[i] != EMPTY; i = (i + 1) & mask)
+        {
+            if (pairKeys[table[i]] == key)
+            {
+                return table[i];
+            }
+        }
+        return EMPTY;
+    }
+
+    private int findOrAddPair(int key)
+    {
+        int mask = table.length - 1;
+        for (int i = mix(key) & mask; ; i = (i + 1) & mask)
+        {
+            int pair = table[i];
+            if (pair == EMPTY)
+            {
+                return addPair(key, i);
+            }
+            if (pairKeys[pair] == key)
+            {
+                return pair;
+            }
+        }
+    }
+
+    private int addPair(int key, int bucket)
+    {
+        if (pairs == pairKeys.length)
+        {
+            int capacity = pairs * 2;
+            pairKeys = Arrays.copyOf(pairKeys, capacity);
+            pairVisits = Arrays.copyOf(pairVisits, capacity);
+            firstOutcomes = Arrays.copyOf(firstOutcomes, capacity);
+        }
+        pairKeys[pairs] = key;
+        pairVisits[pairs] = 0;
+        firstOutcomes[pairs] = EMPTY;
+        table[bucket] = pairs;
+        if (++pairs * 2 > table.length)
+        {
+            rehash(table.length * 2);
+        }
+        return pairs - 1;
+    }
+
+    private void rehash(int capacity)
+    {
+        table = new int[capacity];
+        Arrays.fill(table, EMPTY);
+        int mask = capacity - 1;
+        for (int pair = 0; pair < pairs; pair++)
+        {
+            int i = mix(pairKeys[pair]) & mask;
+            while (table[i] != EMPTY)
+            {
+                i = (i + 1) & mask;
+            }
+            table[i] = pair;
+        }
+    }
+
+    private static int mix(int key)
+    {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
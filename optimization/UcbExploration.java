@@ -0,0 +1,87 @@
+package optimization;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * UCB1: take the action with the highest {@code Q(s,a) + c * sqrt(ln N(s) / N(s,a))}, where N counts how often a
+ * state and a state/action pair were chosen. Every action of a state is tried once before the bonus applies.
+ * Exploration goes to the actions that are least known instead of being spread uniformly, and needs no random draws.
+ *
+ * The counters are primitive arrays sized to the Q-Table, created on the first choice.
+ */
+public class UcbExploration implements ExplorationStrategy {
+
+    private final double confidence;
+    private int[] stateVisits;
+    private int[] pairVisits;
+
+    /**
+     * @param confidence - the weight c of the exploration bonus. Should be on the scale of the rewards.
+     * @throws IllegalArgumentException when the confidence is negative or not a number.
+     */
+    public UcbExploration(double confidence)
+    {
+        if (!(confidence >= 0))
+        {
+            throw new IllegalArgumentException("Confidence must be at least 0 but was " + confidence);
+        }
+        this.confidence = confidence;
+    }
+
+    /**
+     * @param stateIndex - the index of the state.
+     * @param actionIndex - the index of the action.
+     * @return how often the action was chosen in the state.
+     */
+    public int getVisits(int stateIndex, int actionIndex)
+    {
+        return pairVisits == null ? 0 : pairVisits[stateIndex * (pairVisits.length / stateVisits.length) + actionIndex];
+    }
+
+    @Override
+    public int chooseAction(QTable qTable, int stateIndex, RandomGenerator random)
+    {
+        int numberOfActions = qTable.getNumberOfActions();
+        if (stateVisits == null)
+        {
+            stateVisits = new int[qTable.getNumberOfStates()];
+            pairVisits = new int[qTable.getNumberOfStates() * numberOfActions];
+        }
+        int offset = stateIndex * numberOfActions;
+        int best = -1;
+        if (stateVisits[stateIndex] < numberOfActions)
+        {
+            for (int actionIndex = 0; actionIndex < numberOfActions && best < 0; actionIndex++)
+            {
+                if (pairVisits[offset + actionIndex] == 0)
+                {
+                    best = actionIndex;
+                }
+            }
+        }
+        if (best < 0)
+        {
+            double logVisits = Math.log(stateVisits[stateIndex]);
+            double bestScore = Double.NEGATIVE_INFINITY;
+            for (int actionIndex = 0; actionIndex < numberOfActions; actionIndex++)
+            {
+                double score = qTable.get(stateIndex, actionIndex) + confidence * Math.sqrt(logVisits / pairVisits[offset + actionIndex]);
+                if (score > bestScore)
+                {
+                    bestScore = score;
+                    best = actionIndex;
+                }
+            }
+        }
+        stateVisits[stateIndex]++;
+        pairVisits[offset + best]++;
+        return best;
+    }
+
+    @Override
+    public void reset()
+    {
+        stateVisits = null;
+        pairVisits = null;
+    }
+}
@@ -2,7 +2,8 @@ package optimization;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.List;
-import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.random.RandomGenerator;
 
 /**
  *
@@ -12,10 +13,22 @@ public class WeightedRandom<T extends Number> {
     private final Map<Integer, T> distribution;
     private Double sum;
     private List<?> _list;
+    private final RandomGenerator random;
 
+    /**
+     * Draw from the generator of the calling thread.
+     */
     public WeightedRandom(){
+        this(null);
+    }
+
+    /**
+     * @param random - (nullable) the generator to draw from. Null draws from the generator of the calling thread.
+     */
+    public WeightedRandom(RandomGenerator random){
         distribution = new HashMap<>();
         sum = 0d;
+        this.random = random;
     }
 
     public void add(T probability) {
@@ -37,7 +50,7 @@ public class WeightedRandom<T extends Number> {
 
         double ratio = 1.0d / sum;
         double dist = 0;
-        double rand = Math.random();
+        double rand = (random == null ? ThreadLocalRandom.current() : random).nextDouble();
         for (Integer i: distribution.keySet())
         {
             dist += distribution.get(i).doubleValue();
@@ -0,0 +1,53 @@
+package test.optimization;
+
+import optimization.Cartesian;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CartesianTest {
+    private static final List<List<String>> DIMENSIONS = Arrays.asList(
+            Arrays.asList("A", "B"),
+            Arrays.asList("1", "2", "3"),
+            Arrays.asList("x", "y")
+    );
+
+    @Test
+    public void lazyProductMatchesProduct()
+    {
+        List<List<String>> expected = Cartesian.productFrom(DIMENSIONS);
+        Cartesian.Product<String> actual = Cartesian.lazyProductFrom(DIMENSIONS);
+
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++)
+        {
+            assertEquals(expected.get(i), actual.get(i));
+            for (int d = 0; d < DIMENSIONS.size(); d++)
+            {
+                assertEquals(expected.get(i).get(d), actual.get(i, d));
+            }
+        }
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void lazyProductTraversesInParallel()
+    {
+        Cartesian.Product<String> product = Cartesian.lazyProductFrom(Arrays.asList(
+                Arrays.asList("0", "1", "2", "3", "4", "5", "6", "7", "8", "9"),
+                Arrays.asList("0", "1", "2", "3", "4", "5", "6", "7", "8", "9"),
+                Arrays.asList("0", "1", "2", "3", "4", "5", "6", "7", "8", "9"),
+                Arrays.asList("0", "1", "2", "3", "4", "5", "6", "7", "8", "9"),
+                Arrays.asList("0", "1", "2", "3", "4", "5", "6", "7", "8", "9"),
+                Arrays.asList("0", "1", "2", "3", "4", "5", "6", "7", "8", "9")
+        ));
+
+        assertEquals(1000000, product.size());
+        assertEquals("123456", String.join("", product.get(123456)));
+        long sum = product.parallelStream().mapToLong(c -> Long.parseLong(String.join("", c))).sum();
+        assertEquals(999999L * 1000000L / 2, sum);
+    }
+}
@@ -0,0 +1,92 @@
+package test.optimization;
+
+import optimization.ChunkedCsvReader;
+import optimization.ChunkedCsvWriter;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+public class ChunkedCsvWriterTest {
+
+    private static final int ROWS = 10000;
+
+    private static File folder;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        folder = Files.createTempDirectory("optimizationLibrary").toFile();
+    }
+
+    @Test
+    public void compressed() throws IOException
+    {
+        File plain = write("rows.csv", false);
+        File compressed = write("rows.csv.gz", true);
+        assertTrue(compressed.length() < plain.length());
+
+        // The members read back as one gzip file.
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(Files.newInputStream(compressed.toPath())), StandardCharsets.UTF_8)))
+        {
+            assertEquals(Files.readAllLines(plain.toPath()), reader.lines().collect(Collectors.toList()));
+        }
+        List<String> index = Files.readAllLines(ChunkedCsvWriter.getIndexFile(compressed).toPath());
+        assertEquals("Row,Offset", index.get(0));
+        assertEquals("0,", index.get(1).substring(0, 2));
+        assertEquals(1 + (ROWS + 4095) / 4096, index.size());
+    }
+
+    @Test
+    public void seek() throws IOException
+    {
+        File compressed = write("rows.csv.gz", true);
+        for (long row : new long[]{0, 1, 4095, 4096, 5000, 8192, ROWS - 1})
+        {
+            try (BufferedReader reader = ChunkedCsvReader.open(compressed, row))
+            {
+                assertEquals("row " + row + ",", reader.readLine());
+                // Reading goes on across chunks.
+                if (row + 1 < ROWS)
+                {
+                    assertEquals("row " + (row + 1) + ",", reader.readLine());
+                }
+            }
+        }
+        try (BufferedReader reader = ChunkedCsvReader.open(compressed, ROWS))
+        {
+            assertNull(reader.readLine());
+        }
+
+        // Without an index, and without compression, the rows before are skipped.
+        File plain = write("rows.csv", false);
+        assertTrue(ChunkedCsvWriter.getIndexFile(compressed).delete());
+        try (BufferedReader fromCompressed = ChunkedCsvReader.open(compressed, 5000);
+             BufferedReader fromPlain = ChunkedCsvReader.open(plain, 5000))
+        {
+            assertEquals("row 5000,", fromCompressed.readLine());
+            assertEquals("row 5000,", fromPlain.readLine());
+        }
+    }
+
+    private static File write(String name, boolean compressed) throws IOException
+    {
+        File file = new File(folder, name);
+        try (ChunkedCsvWriter writer = new ChunkedCsvWriter(file, compressed))
+        {
+            writer.write("Row," + System.lineSeparator());
+            writer.writeRows(ROWS, (row, out) -> out.append("row ").append(row).append(',').append(System.lineSeparator()));
+        }
+        return file;
+    }
+}
@@ -0,0 +1,264 @@
+package test.optimization;
+
+import optimization.BoltzmannExploration;
+import optimization.EpsilonGreedyExploration;
+import optimization.ExplorationStrategy;
+import optimization.QTable;
+import optimization.UcbExploration;
+import org.junit.Before;
+import org.junit.Test;
+import state.StateSpaceManager;
+import test.state.ActionEnumerationTest;
+import test.state.StateEnumerationTest;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+
+public class ExplorationStrategyTest {
+
+    private static File folder;
+    private static StateSpaceManager manager;
+
+    @Before
+    public void setUp() {
+        try
+        {
+            folder = Files.createTempDirectory("optimizationLibrary").toFile();
+            manager = StateSpaceManager.getManager(folder);
+            manager.registerActionEnumeration(ActionEnumerationTest.Action1.ONE);
+            manager.registerActionEnumeration(ActionEnumerationTest.Action2.TWO);
+            manager.registerStateEnumeration(StateEnumerationTest.COMBAT_POWER.BETTER);
+        }
+        catch(Exception e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    @Test
+    public void epsilonGreedy()
+    {
+        QTable table = new QTable(folder);
+        table.put(0, 2, 1);
+        SplittableRandom random = new SplittableRandom(1);
+
+        EpsilonGreedyExploration strategy = new EpsilonGreedyExploration(1, 0.5, 0.1);
+        strategy.endEpisode();
+        assertEquals(0.5, strategy.getEpsilon(), 0);
+        for (int i = 0; i < 5; i++)
+        {
+            strategy.endEpisode();
+        }
+        assertEquals(0.1, strategy.getEpsilon(), 0);
+        strategy.reset();
+        assertEquals(1, strategy.getEpsilon(), 0);
+
+        EpsilonGreedyExploration greedy = new EpsilonGreedyExploration(0);
+        for (int i = 0; i < 100; i++)
+        {
+            assertEquals(2, greedy.chooseAction(table, 0, random));
+        }
+    }
+
+    @Test
+    public void boltzmann()
+    {
+        QTable table = new QTable(folder);
+        table.put(0, 2, 10);
+        SplittableRandom random = new SplittableRandom(2);
+
+        BoltzmannExploration cold = new BoltzmannExploration(0.1);
+        for (int i = 0; i < 100; i++)
+        {
+            assertEquals(2, cold.chooseAction(table, 0, random));
+        }
+
+        // A hot temperature is close to uniform.
+        BoltzmannExploration hot = new BoltzmannExploration(1000);
+        int[] counts = new int[table.getNumberOfActions()];
+        for (int i = 0; i < 4000; i++)
+        {
+            counts[hot.chooseAction(table, 0, random)]++;
+        }
+        for (int count : counts)
+        {
+            assertTrue(count > 4000 / table.getNumberOfActions() / 2);
+        }
+    }
+
+    @Test
+    public void boltzmannArguments()
+    {
+        double[][] invalid = {{0, 1, 0.1}, {-1, 1, 0.1}, {1, 1, 0}, {1, 0, 0.1}, {1, 1.5, 0.1}, {Double.NaN, 1, 0.1}};
+        for (double[] arguments : invalid)
+        {
+            try {
+                new BoltzmannExploration(arguments[0], arguments[1], arguments[2]);
+                fail("Accepted " + Arrays.toString(arguments));
+            } catch (IllegalArgumentException expected)
+            {
+            }
+        }
+        try {
+            new BoltzmannExploration(0);
+            fail("Accepted a temperature of 0");
+        } catch (IllegalArgumentException expected)
+        {
+        }
+        assertEquals(1, new BoltzmannExploration(1, 1, 0.1).getTemperature(), 0);
+    }
+
+    @Test
+    public void epsilonGreedyArguments()
+    {
+        double[][] invalid = {{-0.1, 1, 0}, {1.5, 1, 0}, {0.5, 1, -0.1}, {0.5, 1, 1.5}, {0.5, 0, 0}, {0.5, 1.5, 0},
+                {Double.NaN, 1, 0}, {0.5, Double.NaN, 0}, {0.5, 1, Double.NaN}};
+        for (double[] arguments : invalid)
+        {
+            try {
+                new EpsilonGreedyExploration(arguments[0], arguments[1], arguments[2]);
+                fail("Accepted " + Arrays.toString(arguments));
+            } catch (IllegalArgumentException expected)
+            {
+            }
+        }
+        try {
+            new EpsilonGreedyExploration(2);
+            fail("Accepted an epsilon of 2");
+        } catch (IllegalArgumentException expected)
+        {
+        }
+        assertEquals(0, new EpsilonGreedyExploration(0).getEpsilon(), 0);
+        assertEquals(1, new EpsilonGreedyExploration(1, 1, 0).getEpsilon(), 0);
+    }
+
+    @Test
+    public void ucbArguments()
+    {
+        for (double confidence : new double[] {-1, Double.NaN})
+        {
+            try {
+                new UcbExploration(confidence);
+                fail("Accepted a confidence of " + confidence);
+            } catch (IllegalArgumentException expected)
+            {
+            }
+        }
+        new UcbExploration(0);
+    }
+
+    @Test
+    public void ucb()
+    {
+        QTable table = new QTable(folder);
+        table.put(0, 1, 10);
+        SplittableRandom random = new SplittableRandom(3);
+        UcbExploration strategy = new UcbExploration(1);
+
+        // Every action is tried once before the values count.
+        for (int actionIndex = 0; actionIndex < table.getNumberOfActions(); actionIndex++)
+        {
+            assertEquals(actionIndex, strategy.chooseAction(table, 0, random));
+        }
+        for (int i = 0; i < 20; i++)
+        {
+            assertEquals(1, strategy.chooseAction(table, 0, random));
+        }
+        assertEquals(21, strategy.getVisits(0, 1));
+        assertEquals(1, strategy.getVisits(0, 0));
+        assertEquals(0, strategy.getVisits(1, 0));
+    }
+
+    /**
+     * Count how many excursions each strategy needs until the greedy policy picks the best action of every state and
+     * keeps picking it for the rest of the run. Each state is a bandit: the means of its actions are spaced 1 / actions
+     * apart in a random order, and rewards add Gaussian noise, so the policy is only found by trying the close actions
+     * often enough. Every strategy that adapts, by decaying or by counting visits, finds it in fewer excursions than a
+     * fixed epsilon.
+     */
+    @Test
+    public void ExcursionsToPolicy()
+    {
+        int seeds = 20;
+        int limit = 10000;
+        String[] names = {"epsilon 0.1", "decaying epsilon", "boltzmann", "ucb1"};
+        @SuppressWarnings("unchecked")
+        Supplier<ExplorationStrategy>[] strategies = new Supplier[]{
+                () -> new EpsilonGreedyExploration(0.1),
+                () -> new EpsilonGreedyExploration(1, 0.9, 0.05),
+                () -> new BoltzmannExploration(1, 0.95, 0.05),
+                () -> new UcbExploration(1),
+        };
+        long[] totals = new long[strategies.length];
+        for (int s = 0; s < strategies.length; s++)
+        {
+            for (int seed = 0; seed < seeds; seed++)
+            {
+                int excursions = excursionsToPolicy(strategies[s].get(), seed, limit);
+                assertTrue(names[s] + " did not find the policy", excursions <= limit);
+                totals[s] += excursions;
+            }
+        }
+        for (int s = 1; s < strategies.length; s++)
+        {
+            assertTrue(names[s] + " took " + totals[s] + " excursions, " + names[0] + " took " + totals[0],
+                    totals[s] < totals[0]);
+        }
+    }
+
+    private static int excursionsToPolicy(ExplorationStrategy strategy, long seed, int limit)
+    {
+        QTable table = new QTable(folder);
+        int states = table.getNumberOfStates();
+        int actions = table.getNumberOfActions();
+        SplittableRandom problem = new SplittableRandom(seed);
+        double[] means = new double[states * actions];
+        int[] bestActions = new int[states];
+        for (int stateIndex = 0; stateIndex < states; stateIndex++)
+        {
+            int offset = stateIndex * actions;
+            for (int actionIndex = 0; actionIndex < actions; actionIndex++)
+            {
+                int swap = problem.nextInt(actionIndex + 1);
+                means[offset + actionIndex] = means[offset + swap];
+                means[offset + swap] = (actionIndex + 1) / (double) actions;
+            }
+            for (int actionIndex = 0; actionIndex < actions; actionIndex++)
+            {
+                if (means[offset + actionIndex] > means[offset + bestActions[stateIndex]])
+                {
+                    bestActions[stateIndex] = actionIndex;
+                }
+            }
+        }
+
+        SplittableRandom random = new SplittableRandom(seed + 1000);
+        int[] counts = new int[states * actions];
+        int found = 0;
+        for (int excursion = 1; excursion <= limit; excursion++)
+        {
+            int stateIndex = random.nextInt(states);
+            int actionIndex = strategy.chooseAction(table, stateIndex, random);
+            double reward = means[stateIndex * actions + actionIndex] + random.nextGaussian() * 0.5;
+            int n = ++counts[stateIndex * actions + actionIndex];
+            double q = table.get(stateIndex, actionIndex);
+            table.put(stateIndex, actionIndex, q + (reward - q) / n);
+            if (excursion % 10 == 0)
+            {
+                strategy.endEpisode();
+                boolean correct = true;
+                for (int state = 0; state < states && correct; state++)
+                {
+                    correct = table.getBestAction(state) == bestActions[state];
+                }
+                found = correct ? (found == 0 ? excursion : found) : 0;
+            }
+        }
+        return found == 0 ? limit + 1 : found;
+    }
+}
@@ -0,0 +1,49 @@
+package test.optimization;
+
+import optimization.IndexedMaxHeap;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class IndexedMaxHeapTest {
+
+    @Test
+    public void pollsInPriorityOrder()
+    {
+        IndexedMaxHeap heap = new IndexedMaxHeap(10);
+        heap.raise(3, 1);
+        heap.raise(7, 5);
+        heap.raise(1, 3);
+        heap.raise(9, 2);
+
+        assertEquals(4, heap.size());
+        assertEquals(7, heap.peek());
+        assertEquals(7, heap.poll());
+        assertEquals(1, heap.poll());
+        assertEquals(9, heap.poll());
+        assertEquals(3, heap.poll());
+        assertTrue(heap.isEmpty());
+        assertFalse(heap.contains(3));
+    }
+
+    @Test
+    public void raiseKeepsOneEntryPerKey()
+    {
+        IndexedMaxHeap heap = new IndexedMaxHeap(10);
+        heap.raise(2, 1);
+        heap.raise(4, 2);
+        heap.raise(2, 3);
+        heap.raise(4, 1);
+
+        assertEquals(2, heap.size());
+        assertEquals(3, heap.getPriority(2), 0);
+        assertEquals(2, heap.getPriority(4), 0);
+        assertEquals(2, heap.poll());
+        assertEquals(4, heap.poll());
+
+        heap.raise(5, 1);
+        heap.clear();
+        assertTrue(heap.isEmpty());
+        assertEquals(0, heap.getPriority(5), 0);
+    }
+}
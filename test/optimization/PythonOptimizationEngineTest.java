@@ -94,18 +94,35 @@ public class PythonOptimizationEngineTest {
 ////
 ////        Thread.sleep(5000);
 
-        ProcessBuilder builder = new ProcessBuilder();
-        builder.inheritIO();
-        builder.command(
-                new File("IPC/runner.sh").getAbsolutePath(),
-                new File("test/python/venv/bin/python3").getAbsolutePath(),
-                new File("test/python/.__TAIL_runner__.py").getAbsolutePath()
-        );
-        Process p = builder.start();
+        PythonRunner runner = new PythonRunner(python, py);
+        runner.run();
         Thread.sleep(5000);
+        runner.destroy();
 
     }
 
+    @Test
+    public void workerFinishesEarly() throws InterruptedException
+    {
+        System.out.println("workerFinishesEarly");
+        registerActionsAndStates();
+        PythonOptimizationEngine instance = new PythonOptimizationEngine(folder, new File("test/python/Test_Worker_Finishes_Early.py"), python);
+        instance.setNumberOfWorkers(2);
+
+        // Worker 0 says goodbye and exits with code 0 before worker 1 asks for its step.
+        int[] step = instance.selectNextState();
+        assertTrue(instance.continueIterating());
+        instance.processResults(manager.getStateForID(step[0]), manager.getActionsForID(step[1]), manager.getStateForID(step[0]), 1, 1);
+
+        // The engine finishes once worker 1 leaves as well.
+        for (int i = 0; i < 100 && instance.continueIterating(); i++)
+        {
+            Thread.sleep(50);
+        }
+        assertFalse(instance.continueIterating());
+        instance.finishOptimization();
+    }
+
     @Test
     public void processResults() {
 
@@ -1,6 +1,8 @@
 package test.optimization;
 
+import optimization.Exceptions;
 import optimization.QLearningEngine;
+import optimization.UcbExploration;
 import optimization.ValueIterationEngine;
 import org.junit.After;
 import org.junit.Before;
@@ -99,6 +101,125 @@ public class QLearningEngineTest {
         assertEquals(expectedValue, actualValue, 0);
     }
 
+    @Test
+    public void planning() {
+        System.out.println("planning");
+        QLearningEngine instance = new QLearningEngine(folder);
+        double alpha = 0.2;
+        double reward = 2;
+        instance.setAlpha(alpha);
+        instance.setPlanningSteps(10);
+        manager.registerActionEnumeration(ActionEnumerationTest.Action1.ONE);
+        manager.registerActionEnumeration(ActionEnumerationTest.Action2.TWO);
+        manager.registerStateEnumeration(StateEnumerationTest.COMBAT_POWER.BETTER);
+
+        instance.processResults(manager.getStateForID(0), manager.getActionsForID(0),  manager.getStateForID(1), 0, reward);
+
+        instance.finishOptimization();
+        Map<Integer, Map<Integer, Double>> table = instance.getResults();
+
+        // One real update followed by ten replays of the same transition.
+        double expectedValue = reward * (1 - Math.pow(1 - alpha, 11));
+        assertEquals(expectedValue, table.get(0).get(0), 1e-12);
+    }
+
+    @Test
+    public void eligibilityTraces() {
+        System.out.println("eligibilityTraces");
+        QLearningEngine instance = new QLearningEngine(folder);
+        double alpha = 0.1;
+        double gamma = 0.9;
+        double lambda = 0.9;
+        instance.setAlpha(alpha);
+        instance.setGamma(gamma);
+        instance.setLambda(lambda);
+        manager.registerActionEnumeration(ActionEnumerationTest.Action1.ONE);
+        manager.registerStateEnumeration(StateEnumerationTest.COMBAT_POWER.BETTER);
+
+        instance.processResults(manager.getStateForID(0), manager.getActionsForID(0),  manager.getStateForID(1), 0, 0);
+        instance.processResults(manager.getStateForID(1), manager.getActionsForID(0),  manager.getStateForID(2), 0, 1);
+
+        instance.finishOptimization();
+        Map<Integer, Map<Integer, Double>> table = instance.getResults();
+
+        // The reward reaches state 0 in the same excursion, discounted by gamma * lambda.
+        assertEquals(alpha, table.get(1).get(0), 1e-12);
+        assertEquals(alpha * gamma * lambda, table.get(0).get(0), 1e-12);
+    }
+
+    @Test
+    public void episodeFollowsTransitions() {
+        System.out.println("episodeFollowsTransitions");
+        QLearningEngine instance = new QLearningEngine(folder, 10, 10);
+        manager.registerActionEnumeration(ActionEnumerationTest.Action1.ONE);
+        manager.registerStateEnumeration(StateEnumerationTest.COMBAT_POWER.BETTER);
+
+        int state = instance.selectNextState()[0];
+        for (int i = 0; i < 5; i++) {
+            int next = (state + 1) % manager.getNumberOfStates();
+            instance.processResults(manager.getStateForID(state), manager.getActionsForID(0),  manager.getStateForID(next), 0, 0);
+            state = instance.selectNextState()[0];
+            assertEquals(next, state);
+        }
+    }
+
+    @Test
+    public void replay() {
+        System.out.println("replay");
+        QLearningEngine instance = new QLearningEngine(folder);
+        double alpha = 0.2;
+        double reward = 2;
+        instance.setAlpha(alpha);
+        instance.setReplay(100, 4);
+        manager.registerActionEnumeration(ActionEnumerationTest.Action1.ONE);
+        manager.registerStateEnumeration(StateEnumerationTest.COMBAT_POWER.BETTER);
+
+        instance.processResults(manager.getStateForID(0), manager.getActionsForID(0),  manager.getStateForID(1), 0, reward);
+
+        instance.finishOptimization();
+        Map<Integer, Map<Integer, Double>> table = instance.getResults();
+
+        // One real update, then a minibatch holding only that transition, applied as a single batched update.
+        double expectedValue = reward * (1 - Math.pow(1 - alpha, 2));
+        assertEquals(expectedValue, table.get(0).get(0), 1e-12);
+    }
+
+    @Test
+    public void prioritizedSweeping() {
+        System.out.println("prioritizedSweeping");
+        QLearningEngine instance = new QLearningEngine(folder);
+        instance.setPlanningSteps(5);
+        instance.setPrioritizedSweeping(true);
+        manager.registerActionEnumeration(ActionEnumerationTest.Action1.ONE);
+        manager.registerStateEnumeration(StateEnumerationTest.COMBAT_POWER.BETTER);
+
+        instance.processResults(manager.getStateForID(0), manager.getActionsForID(0),  manager.getStateForID(1), 0, 0);
+        instance.processResults(manager.getStateForID(1), manager.getActionsForID(0),  manager.getStateForID(2), 0, 1);
+
+        instance.finishOptimization();
+        Map<Integer, Map<Integer, Double>> table = instance.getResults();
+
+        // The reward found in state 1 is swept back to its predecessor without another excursion from state 0.
+        assertTrue(table.get(0).get(0) > 0);
+    }
+
+    @Test
+    public void prioritizedSweepingWithoutPlanning() {
+        System.out.println("prioritizedSweepingWithoutPlanning");
+        QLearningEngine instance = new QLearningEngine(folder, 100, 1);
+        instance.setPrioritizedSweeping(true);
+        manager.registerActionEnumeration(ActionEnumerationTest.Action1.ONE);
+        manager.registerStateEnumeration(StateEnumerationTest.COMBAT_POWER.BETTER);
+
+        instance.processResults(manager.getStateForID(0), manager.getActionsForID(0),  manager.getStateForID(1), 0, 1);
+
+        // Nothing drains the queue, yet only the next episode starts where the TD error is.
+        Set<Integer> states = new HashSet<>();
+        for (int i = 0; i < 50; i++) {
+            states.add(instance.selectNextState()[0]);
+        }
+        assertTrue(states.size() > 1);
+    }
 
     @Test
     public void continueIterating()
@@ -116,6 +237,269 @@ public class QLearningEngineTest {
         assertFalse(instance.continueIterating());
     }
 
+    @Test
+    public void explorationStrategy()
+    {
+        System.out.println("explorationStrategy");
+        manager.registerActionEnumeration(ActionEnumerationTest.Action1.ONE);
+        manager.registerStateEnumeration(StateEnumerationTest.COMBAT_POWER.BETTER);
+        QLearningEngine instance = new QLearningEngine(folder, 1, 10);
+        instance.setExplorationStrategy(new UcbExploration(1));
+
+        // UCB1 tries every action of the start state once before repeating one.
+        Set<Integer> actions = new HashSet<>();
+        for (int i = 0; i < manager.getNumberOfActions(); i++)
+        {
+            actions.add(instance.selectNextState()[1]);
+        }
+        assertEquals(manager.getNumberOfActions(), actions.size());
+    }
+
+    @Test
+    public void episodesInFlight()
+    {
+        System.out.println("episodesInFlight");
+        manager.registerActionEnumeration(ActionEnumerationTest.Action1.ONE);
+        manager.registerStateEnumeration(StateEnumerationTest.COMBAT_POWER.BETTER);
+        QLearningEngine instance = new QLearningEngine(folder, 4, 5);
+        instance.setEpisodesInFlight(2);
+        assertFalse(instance.requiresFixedExcursionOrdering());
+
+        // Two steps are handed out before either result comes back, and the results arrive in reverse order.
+        int steps = 0;
+        while (instance.continueIterating())
+        {
+            int[] first = instance.selectNextState();
+            int[] second = instance.selectNextState();
+            steps += 2;
+            instance.processResults(manager.getStateForID(second[0]), manager.getActionsForID(second[1]),  manager.getStateForID(second[0]), 1, 1);
+            instance.processResults(manager.getStateForID(first[0]), manager.getActionsForID(first[1]),  manager.getStateForID(first[0]), 1, 1);
+        }
+        assertEquals(4 * 5, steps);
+        assertEquals(4, instance.getConvergenceCurve().length);
+        instance.finishOptimization();
+        assertEquals(manager.getNumberOfStates(), instance.getResults().size());
+    }
+
+    @Test
+    public void episodesInFlightConcurrently() throws InterruptedException
+    {
+        System.out.println("episodesInFlightConcurrently");
+        manager.registerActionEnumeration(ActionEnumerationTest.Action1.ONE);
+        manager.registerStateEnumeration(StateEnumerationTest.COMBAT_POWER.BETTER);
+        QLearningEngine instance = new QLearningEngine(folder, 50, 20);
+        instance.setEpisodesInFlight(4);
+        instance.setLambda(0.5);
+
+        Thread[] threads = new Thread[4];
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < threads.length; i++)
+        {
+            threads[i] = new Thread(() -> {
+                try {
+                    while (instance.continueIterating())
+                    {
+                        int[] step = instance.selectNextState();
+                        instance.processResults(manager.getStateForID(step[0]), manager.getActionsForID(step[1]),  manager.getStateForID(step[0]), 1, 1);
+                    }
+                } catch (Throwable err)
+                {
+                    errors.add(err);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertEquals(50, instance.getConvergenceCurve().length);
+    }
+
+    @Test
+    public void asynchronousLearning() throws InterruptedException
+    {
+        System.out.println("asynchronousLearning");
+        manager.registerActionEnumeration(ActionEnumerationTest.Action1.ONE);
+        manager.registerStateEnumeration(StateEnumerationTest.COMBAT_POWER.BETTER);
+
+        // The learner applies results in the order they were queued, so the table matches synchronous learning.
+        Map<Integer, Map<Integer, Double>> expected = learnFixedResults(0);
+        Map<Integer, Map<Integer, Double>> actual = learnFixedResults(4);
+        assertEquals(expected, actual);
+
+        // Once finished, the learner thread stops.
+        long deadline = System.currentTimeMillis() + 5000;
+        while (isLearnerRunning() && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(10);
+        }
+        assertFalse(isLearnerRunning());
+    }
+
+    private Map<Integer, Map<Integer, Double>> learnFixedResults(int queueCapacity)
+    {
+        QLearningEngine instance = new QLearningEngine(folder, 10, 10);
+        instance.setAsynchronousLearning(queueCapacity);
+        instance.setPlanningSteps(3);
+        instance.setSeed(5);
+        int states = manager.getNumberOfStates();
+        int actions = manager.getNumberOfActions();
+        for (int i = 0; i < 500; i++)
+        {
+            int state = i % states;
+            int next = (i * 7 + 1) % states;
+            instance.processResults(manager.getStateForID(state), manager.getActionsForID(i % actions),  manager.getStateForID(next), 1, next == 0 ? 1 : 0);
+        }
+        instance.finishOptimization();
+        return instance.getResults();
+    }
+
+    private static boolean isLearnerRunning()
+    {
+        return Thread.getAllStackTraces().keySet().stream().anyMatch(thread -> thread.getName().equals("TAIL_Q_LEARNER"));
+    }
+
+    @Test
+    public void snapshotWhileIterating()
+    {
+        System.out.println("snapshotWhileIterating");
+        manager.registerActionEnumeration(ActionEnumerationTest.Action1.ONE);
+        manager.registerStateEnumeration(StateEnumerationTest.COMBAT_POWER.BETTER);
+        QLearningEngine instance = new QLearningEngine(folder, 10, 10);
+        instance.setSnapshotInterval(1);
+        try {
+            instance.getResults();
+            fail("No snapshot was published yet");
+        } catch (Exceptions.PrematureInvocationException err)
+        {
+            // expected
+        }
+
+        instance.selectNextState();
+        instance.processResults(manager.getStateForID(0), manager.getActionsForID(0),  manager.getStateForID(0), 1, 1);
+        assertTrue(instance.continueIterating());
+        Map<Integer, Map<Integer, Double>> interim = instance.getResults();
+        assertEquals(manager.getNumberOfStates(), interim.size());
+        assertTrue(interim.get(0).get(0) > 0);
+    }
+
+    @Test
+    public void checkpointResume()
+    {
+        System.out.println("checkpointResume");
+        manager.registerActionEnumeration(ActionEnumerationTest.Action1.ONE);
+        manager.registerStateEnumeration(StateEnumerationTest.COMBAT_POWER.BETTER);
+        QLearningEngine instance = new QLearningEngine(folder, 10, 10);
+        instance.setCheckpointInterval(60000);
+        for (int i = 0; i < 20; i++)
+        {
+            int[] step = instance.selectNextState();
+            instance.processResults(manager.getStateForID(step[0]), manager.getActionsForID(step[1]),  manager.getStateForID((step[0] + 1) % manager.getNumberOfStates()), 1, i);
+        }
+        instance.finishOptimization();
+        Map<Integer, Map<Integer, Double>> expected = instance.getResults();
+
+        // A new engine in the same folder resumes from the checkpoint written when the first one finished.
+        QLearningEngine resumed = new QLearningEngine(folder, 10, 10);
+        resumed.setCheckpointInterval(60000);
+        resumed.selectNextState();
+        resumed.finishOptimization();
+        assertEquals(expected, resumed.getResults());
+    }
+
+    @Test
+    public void seed()
+    {
+        System.out.println("seed");
+        manager.registerActionEnumeration(ActionEnumerationTest.Action1.ONE);
+        manager.registerStateEnumeration(StateEnumerationTest.COMBAT_POWER.BETTER);
+
+        // The same seed and the same results give the same excursions, including the replayed minibatches.
+        assertEquals(runSeeded(42), runSeeded(42));
+    }
+
+    private List<Integer> runSeeded(long seed)
+    {
+        QLearningEngine instance = new QLearningEngine(folder, 10, 10);
+        instance.setEpsilon(0.5);
+        instance.setReplay(50, 4);
+        instance.setSeed(seed);
+        List<Integer> steps = new ArrayList<>();
+        while (instance.continueIterating())
+        {
+            int[] step = instance.selectNextState();
+            steps.add(step[0]);
+            steps.add(step[1]);
+            int next = (step[0] + step[1] + 1) % manager.getNumberOfStates();
+            instance.processResults(manager.getStateForID(step[0]), manager.getActionsForID(step[1]),  manager.getStateForID(next), 1, next);
+        }
+        instance.finishOptimization();
+        Map<Integer, Map<Integer, Double>> table = instance.getResults();
+        for (int stateIndex = 0; stateIndex < manager.getNumberOfStates(); stateIndex++)
+        {
+            steps.add(table.get(stateIndex).keySet().iterator().next());
+        }
+        return steps;
+    }
+
+    @Test
+    public void convergence()
+    {
+        System.out.println("convergence");
+        manager.registerActionEnumeration(ActionEnumerationTest.Action1.ONE);
+        manager.registerStateEnumeration(StateEnumerationTest.COMBAT_POWER.BETTER);
+        QLearningEngine instance = new QLearningEngine(folder, 100, 10);
+        instance.setConvergenceTolerance(1e-6, 5);
+        int iterations = 0;
+        while (instance.continueIterating())
+        {
+            int[] step = instance.selectNextState();
+            if (iterations++ < 5)
+            {
+                instance.processResults(manager.getStateForID(step[0]), manager.getActionsForID(step[1]),  manager.getStateForID(step[0]), 0, 1);
+            }
+        }
+
+        // The first episode changes the table, then nothing moves for five episodes.
+        assertTrue(instance.isConverged());
+        assertEquals(6 * 10, iterations);
+        double[] curve = instance.getConvergenceCurve();
+        assertEquals(6, curve.length);
+        assertTrue(curve[0] > 0);
+        assertEquals(0, curve[5], 0);
+
+        instance.finishOptimization();
+        assertTrue(new File(folder, "convergence.csv").exists());
+    }
+
+    @Test
+    public void convergenceWithAsynchronousLearning()
+    {
+        System.out.println("convergenceWithAsynchronousLearning");
+        manager.registerActionEnumeration(ActionEnumerationTest.Action1.ONE);
+        manager.registerStateEnumeration(StateEnumerationTest.COMBAT_POWER.BETTER);
+        QLearningEngine instance = new QLearningEngine(folder, 100, 10);
+        instance.setConvergenceTolerance(1e-6, 5);
+        instance.setAsynchronousLearning(64);
+        int iterations = 0;
+        while (instance.continueIterating())
+        {
+            int[] step = instance.selectNextState();
+            if (iterations++ < 10)
+            {
+                instance.processResults(manager.getStateForID(step[0]), manager.getActionsForID(step[1]),  manager.getStateForID(step[0]), 0, 1);
+            }
+        }
+
+        // Results still queued for the learner count toward the episode that produced them.
+        double[] curve = instance.getConvergenceCurve();
+        assertTrue(curve[0] > 0);
+        assertEquals(7 * 10, iterations);
+        instance.finishOptimization();
+    }
+
     @Test
     public void finishOptimization()
     {
@@ -0,0 +1,133 @@
+package test.optimization;
+
+import optimization.QTable;
+import optimization.QTableCheckpoint;
+import org.junit.Before;
+import org.junit.Test;
+import state.StateSpaceManager;
+import test.state.ActionEnumerationTest;
+import test.state.StateEnumerationTest;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.Assert.*;
+
+public class QTableCheckpointTest {
+
+    private static File folder;
+    private static StateSpaceManager manager;
+
+    @Before
+    public void setUp() {
+        try
+        {
+            folder = Files.createTempDirectory("optimizationLibrary").toFile();
+            manager = StateSpaceManager.getManager(folder);
+            manager.registerActionEnumeration(ActionEnumerationTest.Action1.ONE);
+            manager.registerActionEnumeration(ActionEnumerationTest.Action2.TWO);
+            manager.registerStateEnumeration(StateEnumerationTest.COMBAT_POWER.BETTER);
+        }
+        catch(Exception e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    @Test
+    public void restore() throws IOException
+    {
+        QTable table = new QTable(folder);
+        QTableCheckpoint checkpoint = new QTableCheckpoint(folder, table);
+        table.put(0, 1, 1);
+        checkpoint.checkpoint();
+        long baseSize = new File(folder, "qtable.base").length();
+        long deltaSize = new File(folder, "qtable.delta").length();
+
+        // Only the changed row is appended.
+        table.put(2, 3, 7);
+        checkpoint.checkpoint();
+        long frameSize = new File(folder, "qtable.delta").length() - deltaSize;
+        assertEquals(4 + 4 + 8 * table.getNumberOfActions() + 8, frameSize);
+        assertEquals(baseSize, new File(folder, "qtable.base").length());
+        checkpoint.close();
+
+        QTable restored = new QTable(folder);
+        assertTrue(new QTableCheckpoint(folder, restored).restore());
+        assertTablesEqual(table, restored);
+    }
+
+    @Test
+    public void tornFrame() throws IOException
+    {
+        QTable table = new QTable(folder);
+        QTableCheckpoint checkpoint = new QTableCheckpoint(folder, table);
+        table.put(1, 1, 3);
+        checkpoint.checkpoint();
+        table.put(1, 2, 4);
+        checkpoint.checkpoint();
+        checkpoint.close();
+        File delta = new File(folder, "qtable.delta");
+        long intact = delta.length();
+        // A crash in the middle of the next frame.
+        Files.write(delta.toPath(), new byte[]{0, 0, 0, 1, 0, 0, 0, 2, 9, 9}, StandardOpenOption.APPEND);
+
+        QTable restored = new QTable(folder);
+        QTableCheckpoint resumed = new QTableCheckpoint(folder, restored);
+        assertTrue(resumed.restore());
+        assertTablesEqual(table, restored);
+        assertEquals(intact, delta.length());
+
+        // New frames are appended after the intact ones.
+        restored.put(0, 0, 5);
+        resumed.checkpoint();
+        resumed.close();
+        QTable again = new QTable(folder);
+        assertTrue(new QTableCheckpoint(folder, again).restore());
+        assertTablesEqual(restored, again);
+    }
+
+    @Test
+    public void compaction() throws IOException
+    {
+        QTable table = new QTable(folder);
+        QTableCheckpoint checkpoint = new QTableCheckpoint(folder, table);
+        checkpoint.checkpoint();
+        File base = new File(folder, "qtable.base");
+        File delta = new File(folder, "qtable.delta");
+        File oldDelta = new File(folder, "old.delta");
+
+        int writes = 0;
+        while (delta.length() < base.length())
+        {
+            table.put(writes % table.getNumberOfStates(), 0, ++writes);
+            checkpoint.checkpoint();
+        }
+        Files.copy(delta.toPath(), oldDelta.toPath());
+        table.put(0, 0, -1);
+        checkpoint.checkpoint();
+        // The log outgrew the base, so the table was compacted into a new base.
+        assertTrue(delta.length() < oldDelta.length());
+        checkpoint.close();
+
+        // A log of an older generation is never applied on top of a newer base.
+        Files.copy(oldDelta.toPath(), delta.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        QTable restored = new QTable(folder);
+        assertTrue(new QTableCheckpoint(folder, restored).restore());
+        assertTablesEqual(table, restored);
+    }
+
+    private static void assertTablesEqual(QTable expected, QTable actual)
+    {
+        for (int stateIndex = 0; stateIndex < expected.getNumberOfStates(); stateIndex++)
+        {
+            for (int actionIndex = 0; actionIndex < expected.getNumberOfActions(); actionIndex++)
+            {
+                assertEquals(expected.get(stateIndex, actionIndex), actual.get(stateIndex, actionIndex), 0);
+            }
+        }
+    }
+}
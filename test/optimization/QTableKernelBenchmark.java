@@ -0,0 +1,92 @@
+package test.optimization;
+
+import optimization.QTableKernel;
+
+import java.util.Random;
+
+/**
+ * Compares the scalar and Vector API Q-Table kernels across row widths. This is the measurement behind
+ * QTableKernel's MIN_VECTOR_ROW_LENGTH. It is a program rather than a test, run it with
+ * {@code java --add-modules jdk.incubator.vector test.optimization.QTableKernelBenchmark}.
+ *
+ * Speedup of the vector kernel over the scalar kernel on an x86-64 host with AVX-512 (8 doubles per vector), Java 17:
+ * <pre>
+ * actions   argmax   update
+ *       4    0.2x     0.4x
+ *       8    0.8x     0.6x
+ *      16    0.7x     2.0x
+ *      24    1.2x     2.7x
+ *      32    1.4x     2.5x
+ *      64    2.5x     2.7x
+ *     256    4.8x     1.9x
+ * </pre>
+ * Row scans, which every greedy choice does, only win from about 24 actions; 32 is the first width where both
+ * operations are clearly faster.
+ */
+public class QTableKernelBenchmark {
+
+    private static final int[] ROW_LENGTHS = {4, 8, 16, 24, 32, 64, 256};
+
+    public static void main(String[] args)
+    {
+        QTableKernel scalar = QTableKernel.get(false);
+        QTableKernel vector = QTableKernel.get(true);
+        if (!vector.isVectorized())
+        {
+            System.out.println("The Vector API is unavailable, run with --add-modules jdk.incubator.vector");
+            return;
+        }
+        System.out.println("actions   argmax   update");
+        Random random = new Random(1);
+        for (int rowLength : ROW_LENGTHS)
+        {
+            int states = (1 << 20) / rowLength;
+            double[] q = new double[states * rowLength];
+            for (int i = 0; i < q.length; i++)
+            {
+                q[i] = random.nextDouble();
+            }
+            int count = 1 << 14;
+            int[] s = new int[count], a = new int[count], next = new int[count];
+            double[] r = new double[count];
+            for (int i = 0; i < count; i++)
+            {
+                s[i] = random.nextInt(states);
+                a[i] = random.nextInt(rowLength);
+                next[i] = random.nextInt(states);
+                r[i] = random.nextDouble();
+            }
+            long[] scalarTimes = time(scalar, q, rowLength, states, s, a, r, next, count);
+            long[] vectorTimes = time(vector, q, rowLength, states, s, a, r, next, count);
+            System.out.println(String.format("%7d %6.1fx %7.1fx", rowLength,
+                    scalarTimes[0] / (double) vectorTimes[0], scalarTimes[1] / (double) vectorTimes[1]));
+        }
+    }
+
+    /**
+     * @return the best of 30 runs, in nanoseconds, of an argmax over every row and of a batched update.
+     */
+    private static long[] time(QTableKernel kernel, double[] q, int rowLength, int states, int[] s, int[] a, double[] r, int[] next, int count)
+    {
+        long argmax = Long.MAX_VALUE;
+        long update = Long.MAX_VALUE;
+        long sink = 0;
+        for (int run = 0; run < 30; run++)
+        {
+            long start = System.nanoTime();
+            for (int state = 0; state < states; state++)
+            {
+                sink += kernel.argmax(q, state * rowLength, rowLength);
+            }
+            argmax = Math.min(argmax, System.nanoTime() - start);
+            start = System.nanoTime();
+            kernel.update(q, rowLength, s, a, r, next, count, 0.1, 0.9);
+            update = Math.min(update, System.nanoTime() - start);
+        }
+        if (sink == 42)
+        {
+            System.out.println();
+        }
+        return new long[]{argmax, update};
+    }
+}
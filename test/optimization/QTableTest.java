@@ -0,0 +1,171 @@
+package test.optimization;
+
+import optimization.Policy;
+import optimization.QTable;
+import optimization.QTableKernel;
+import org.junit.Before;
+import org.junit.Test;
+import state.StateSpaceManager;
+import test.state.ActionEnumerationTest;
+import test.state.StateEnumerationTest;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class QTableTest {
+
+    private static File folder;
+    private static StateSpaceManager manager;
+
+    @Before
+    public void setUp() {
+        try
+        {
+            folder = Files.createTempDirectory("optimizationLibrary").toFile();
+            manager = StateSpaceManager.getManager(folder);
+            manager.registerActionEnumeration(ActionEnumerationTest.Action1.ONE);
+            manager.registerActionEnumeration(ActionEnumerationTest.Action2.TWO);
+            manager.registerStateEnumeration(StateEnumerationTest.COMBAT_POWER.BETTER);
+        }
+        catch(Exception e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    @Test
+    public void getOptimalPolicy()
+    {
+        QTable table = new QTable(folder);
+        int lastAction = table.getNumberOfActions() - 1;
+        table.put(0, lastAction, 5);
+        table.put(1, 0, -1);
+
+        Policy policy = table.getOptimalPolicy();
+        assertEquals(table.getNumberOfStates(), policy.size());
+        assertEquals(lastAction, policy.getBestAction(0));
+        assertEquals(5, policy.getBestValue(0), 0);
+        // Ties go to the lowest action index.
+        assertEquals(1, policy.getBestAction(1));
+
+        assertEquals(Map.of(lastAction, 5.0), policy.get(0));
+        int states = 0;
+        for (Map.Entry<Integer, Map<Integer, Double>> entry : policy.entrySet())
+        {
+            assertEquals(1, entry.getValue().size());
+            states++;
+        }
+        assertEquals(table.getNumberOfStates(), states);
+    }
+
+    @Test
+    public void snapshot()
+    {
+        QTable table = new QTable(folder);
+        table.setSnapshotInterval(2);
+        table.put(0, 1, 3);
+        assertNull(table.getSnapshot());
+        table.put(1, 2, 4);
+        Policy first = table.getSnapshot();
+        assertNotNull(first);
+        assertEquals(1, first.getBestAction(0));
+        assertEquals(4, first.getBestValue(1), 0);
+
+        // Published snapshots never change; the next one only recomputes the changed row.
+        table.put(0, 3, 5);
+        assertSame(first, table.getSnapshot());
+        table.update(new int[]{1}, new int[]{0}, new double[]{100}, new int[]{1}, 1, 0.5, 0);
+        Policy second = table.getSnapshot();
+        assertNotSame(first, second);
+        assertEquals(1, first.getBestAction(0));
+        assertEquals(3, second.getBestAction(0));
+        assertEquals(0, second.getBestAction(1));
+        assertEquals(50, second.getBestValue(1), 0);
+        assertEquals(table.getNumberOfStates(), second.size());
+    }
+
+    @Test
+    public void update()
+    {
+        QTable table = new QTable(folder);
+        table.put(1, 2, 4);
+        table.put(0, 0, 1);
+
+        // Both targets come from the table before the batch, so the second transition does not see the first.
+        table.update(new int[]{0, 1}, new int[]{0, 2}, new double[]{1, 0}, new int[]{1, 0}, 2, 0.5, 0.5);
+        assertEquals(1 + 0.5 * (1 + 0.5 * 4 - 1), table.get(0, 0), 1e-12);
+        assertEquals(4 + 0.5 * (0.5 * 1 - 4), table.get(1, 2), 1e-12);
+        assertEquals(2, table.getBestValue(0), 1e-12);
+    }
+
+    @Test
+    public void kernelsAgree()
+    {
+        Random random = new Random(7);
+        QTableKernel scalar = QTableKernel.get(false);
+        QTableKernel vector = QTableKernel.get(true);
+        for (int length = 1; length < 40; length++)
+        {
+            double[] row = new double[length + 3];
+            for (int i = 0; i < row.length; i++)
+            {
+                row[i] = random.nextInt(5);
+            }
+            assertEquals(scalar.argmax(row, 3, length), vector.argmax(row, 3, length));
+            assertEquals(scalar.max(row, 3, length), vector.max(row, 3, length), 0);
+        }
+
+        int states = 64, actions = 13, count = 101;
+        double[] expected = new double[states * actions];
+        for (int i = 0; i < expected.length; i++)
+        {
+            expected[i] = random.nextGaussian();
+        }
+        double[] actual = expected.clone();
+        int[] s = new int[count], a = new int[count], next = new int[count];
+        double[] r = new double[count];
+        for (int i = 0; i < count; i++)
+        {
+            s[i] = random.nextInt(states);
+            a[i] = random.nextInt(actions);
+            next[i] = random.nextInt(states);
+            r[i] = random.nextGaussian();
+        }
+        scalar.update(expected, actions, s, a, r, next, count, 0.1, 0.9);
+        vector.update(actual, actions, s, a, r, next, count, 0.1, 0.9);
+        assertArrayEquals(expected, actual, 1e-12);
+    }
+
+    @Test
+    public void SweepSpeed()
+    {
+        QTable table = new QTable(folder);
+        int count = 1 << 16;
+        int[] states = new int[count], actions = new int[count], nextStates = new int[count];
+        double[] rewards = new double[count];
+        Random random = new Random(11);
+        for (int i = 0; i < count; i++)
+        {
+            states[i] = random.nextInt(table.getNumberOfStates());
+            actions[i] = random.nextInt(table.getNumberOfActions());
+            nextStates[i] = random.nextInt(table.getNumberOfStates());
+            rewards[i] = random.nextDouble();
+        }
+        for (boolean vectorized : new boolean[]{false, true})
+        {
+            table.setVectorized(vectorized);
+            long start = System.nanoTime();
+            for (int i = 0; i < 10; i++)
+            {
+                table.update(states, actions, rewards, nextStates, count, 0.1, 0.9);
+                table.getOptimalPolicy();
+            }
+            long finish = System.nanoTime();
+            System.out.println(String.format("Vectorized %b: Elapsed Time: %fms", table.isVectorized(), (finish - start) / 1000000.0));
+        }
+    }
+}
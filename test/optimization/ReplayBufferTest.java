@@ -0,0 +1,57 @@
+package test.optimization;
+
+import optimization.ReplayBuffer;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ReplayBufferTest {
+
+    @Test
+    public void overwritesOldestWhenFull()
+    {
+        ReplayBuffer buffer = new ReplayBuffer(3);
+        for (int i = 0; i < 5; i++)
+        {
+            buffer.add(i, 0, i + 1, i, 1);
+        }
+        assertEquals(3, buffer.size());
+
+        int samples = buffer.sample(100, false);
+        assertEquals(100, samples);
+        for (int i = 0; i < samples; i++)
+        {
+            int state = buffer.getSampledStates()[i];
+            assertTrue(state >= 2);
+            assertEquals(state + 1, buffer.getSampledNextStates()[i]);
+            assertEquals(state, buffer.getSampledRewards()[i], 0);
+        }
+    }
+
+    @Test
+    public void prioritizedSamplingFollowsErrors()
+    {
+        ReplayBuffer buffer = new ReplayBuffer(4);
+        for (int i = 0; i < 4; i++)
+        {
+            buffer.add(i, 0, i, 0, 1);
+        }
+
+        // Replay everything once; only state 2 has a TD error.
+        int samples = buffer.sample(256, false);
+        double[] errors = new double[samples];
+        for (int i = 0; i < samples; i++)
+        {
+            errors[i] = buffer.getSampledStates()[i] == 2 ? 10 : 0;
+        }
+        buffer.updatePriorities(errors, samples);
+
+        samples = buffer.sample(1000, true);
+        int hits = 0;
+        for (int i = 0; i < samples; i++)
+        {
+            hits += buffer.getSampledStates()[i] == 2 ? 1 : 0;
+        }
+        assertTrue(hits > 990);
+    }
+}
@@ -0,0 +1,69 @@
+package test.optimization;
+
+import optimization.StateActionCodec;
+import org.junit.Before;
+import org.junit.Test;
+import state.ActionEnumeration;
+import state.StateSpaceManager;
+import test.state.ActionEnumerationTest;
+import test.state.StateEnumerationTest;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class StateActionCodecTest {
+
+    private static File folder;
+    private static StateSpaceManager manager;
+
+    @Before
+    public void setUp() {
+        try
+        {
+            folder = Files.createTempDirectory("optimizationLibrary").toFile();
+            manager = StateSpaceManager.getManager(folder);
+            manager.registerActionEnumeration(ActionEnumerationTest.Action1.ONE);
+            manager.registerActionEnumeration(ActionEnumerationTest.Action2.TWO);
+            manager.registerStateEnumeration(StateEnumerationTest.COMBAT_POWER.BETTER);
+        }
+        catch(Exception e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    @Test
+    public void matchesManager()
+    {
+        StateActionCodec codec = new StateActionCodec(manager);
+        for (int i = 0; i < manager.getNumberOfStates(); i++)
+        {
+            assertEquals(manager.getIDForState(manager.getStateForID(i)), codec.encodeState(manager.getStateForID(i)));
+        }
+        for (int i = 0; i < manager.getNumberOfActions(); i++)
+        {
+            assertEquals(manager.getIDForActions(manager.getActionsForID(i)), codec.encodeActions(manager.getActionsForID(i)));
+        }
+    }
+
+    @Test
+    public void placesValuesByEnum()
+    {
+        StateActionCodec codec = new StateActionCodec(manager);
+        List<ActionEnumeration> ordered = Arrays.asList(ActionEnumerationTest.Action1.TWO, ActionEnumerationTest.Action2.ONE);
+        List<ActionEnumeration> reversed = Arrays.asList(ActionEnumerationTest.Action2.ONE, ActionEnumerationTest.Action1.TWO);
+        assertEquals(codec.encodeActions(ordered), codec.encodeActions(reversed));
+
+        try {
+            codec.encodeActions(Arrays.asList(ActionEnumerationTest.Action1.TWO));
+            fail("Expected a mismatch");
+        } catch (IllegalArgumentException err)
+        {
+            System.out.println("caught manager mismatch");
+        }
+    }
+}
@@ -0,0 +1,32 @@
+import base64
+import os
+import socket
+import time
+
+"""
+This file is used in Java to verify that a worker which says goodbye and exits cleanly does not stop the other workers.
+Worker 0 leaves right away. Worker 1 asks for a step once worker 0 is gone, waits for the reply, then leaves.
+"""
+
+connection = socket.create_connection(('127.0.0.1', int(os.environ.get('TAIL_PORT', 8888))))
+replies = connection.makefile('rb')
+
+
+def send(channel, message):
+    connection.sendall(base64.b64encode('{}:{}'.format(channel, message).encode()) + b'\n')
+
+
+def receive(channel):
+    for line in replies:
+        received, message = base64.b64decode(line.strip()).decode().split(':', 1)
+        if received == channel:
+            return message
+    return None
+
+
+if os.environ.get('TAIL_WORKER') == '1':
+    time.sleep(1)
+    send('step', '0')
+    receive('step')
+send('$DISCONNECT', 'bye')
+connection.close()
@@ -0,0 +1,84 @@
+package optimization;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link QTableKernel} on the incubating Vector API. Kept in its own source set and only loaded through
+ * {@link QTableKernel#get(boolean)}, so the rest of the library compiles and runs without
+ * {@code --add-modules jdk.incubator.vector}.
+ */
+class VectorQTableKernel extends QTableKernel {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    @Override
+    public boolean isVectorized()
+    {
+        return true;
+    }
+
+    @Override
+    public int argmax(double[] q, int offset, int length)
+    {
+        double max = max(q, offset, length);
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += SPECIES.length())
+        {
+            int lane = DoubleVector.fromArray(SPECIES, q, offset + i).eq(max).firstTrue();
+            if (lane < SPECIES.length())
+            {
+                return i + lane;
+            }
+        }
+        for (; i < length; i++)
+        {
+            if (q[offset + i] == max)
+            {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public double max(double[] q, int offset, int length)
+    {
+        int i = 0;
+        double max = Double.NEGATIVE_INFINITY;
+        int bound = SPECIES.loopBound(length);
+        if (bound > 0)
+        {
+            DoubleVector lanes = DoubleVector.fromArray(SPECIES, q, offset);
+            for (i = SPECIES.length(); i < bound; i += SPECIES.length())
+            {
+                lanes = lanes.max(DoubleVector.fromArray(SPECIES, q, offset + i));
+            }
+            max = lanes.reduceLanes(VectorOperators.MAX);
+        }
+        for (; i < length; i++)
+        {
+            max = Math.max(max, q[offset + i]);
+        }
+        return max;
+    }
+
+    @Override
+    protected void bellman(double[] q, int[] indexes, double[] rewards, double[] maxNext, int count, double alpha, double gamma)
+    {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(count); i < bound; i += SPECIES.length())
+        {
+            DoubleVector value = DoubleVector.fromArray(SPECIES, q, 0, indexes, i);
+            DoubleVector target = DoubleVector.fromArray(SPECIES, maxNext, i).mul(gamma)
+                    .add(DoubleVector.fromArray(SPECIES, rewards, i));
+            target.sub(value).mul(alpha).add(value).intoArray(maxNext, i);
+        }
+        for (; i < count; i++)
+        {
+            double value = q[indexes[i]];
+            maxNext[i] = value + alpha * (rewards[i] + gamma * maxNext[i] - value);
+        }
+    }
+}